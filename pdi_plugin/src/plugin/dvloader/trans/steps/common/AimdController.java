@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+/**
+ * Adapt the effective buffer size and number of in-flight buffers to DB latency 
+ * (additive increase, multiplicative decrease).
+ * <p>
+ * After each cycle (lookup + insert/update of one buffer):
+ * <ul>
+ * <li>within target latency: buffer grows by min size, in-flight grows by 1</li>
+ * <li>above target latency: buffer and in-flight are halved</li>
+ * </ul>
+ * Both always stay within their bounds. Called by the thread doing DB work and read by 
+ * the step thread filling buffers, hence synchronized.
+ *
+ * @author mouellet
+ *
+ */
+public class AimdController {
+
+	private final int minSize;
+	private final int maxSize;
+	private final int maxInFlight;
+	private final long targetMs;
+
+	private int size;
+	private int inFlight;
+	private int nbDecreases;
+
+	/**
+	 * Start at max (i.e. the static configuration) and back off when DB is slow
+	 * 
+	 * @param minSize lowest buffer size
+	 * @param maxSize highest buffer size (configured buffer size)
+	 * @param maxInFlight highest number of buffers in-flight
+	 * @param targetMs target latency of one cycle
+	 */
+	public AimdController(int minSize, int maxSize, int maxInFlight, long targetMs) {
+		this.maxSize = Math.max(1, maxSize);
+		this.minSize = Math.min(Math.max(1, minSize), this.maxSize);
+		this.maxInFlight = Math.max(1, maxInFlight);
+		this.targetMs = Math.max(1, targetMs);
+		this.size = this.maxSize;
+		this.inFlight = this.maxInFlight;
+	}
+
+	/**
+	 * @param elapsedMs latency of cycle just completed
+	 * @return true when limits were changed
+	 */
+	public synchronized boolean onCycle(long elapsedMs) {
+		int prevSize = size;
+		int prevInFlight = inFlight;
+		if (elapsedMs > targetMs) {
+			size = Math.max(minSize, size / 2);
+			inFlight = Math.max(1, inFlight / 2);
+			nbDecreases++;
+		} else {
+			size = Math.min(maxSize, size + minSize);
+			inFlight = Math.min(maxInFlight, inFlight + 1);
+		}
+		return (size != prevSize || inFlight != prevInFlight);
+	}
+
+	public synchronized int getBufferSize() {
+		return size;
+	}
+
+	public synchronized int getInFlight() {
+		return inFlight;
+	}
+
+	public synchronized int getNbDecreases() {
+		return nbDecreases;
+	}
+
+	public synchronized String toString() {
+		return "buffer size= " + size + ", in-flight= " + inFlight;
+	}
+
+}
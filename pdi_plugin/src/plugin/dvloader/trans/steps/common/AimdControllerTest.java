@@ -0,0 +1,66 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class AimdControllerTest {
+
+	@Test
+	public void testBackOffAndRecover() {
+		AimdController c = new AimdController(100, 1000, 4, 500);
+		assertEquals(1000, c.getBufferSize());
+		assertEquals(4, c.getInFlight());
+
+		assertTrue(c.onCycle(800));
+		assertEquals(500, c.getBufferSize());
+		assertEquals(2, c.getInFlight());
+		c.onCycle(800);
+		c.onCycle(800);
+		c.onCycle(800);
+		// never below min
+		assertEquals(100, c.getBufferSize());
+		assertEquals(1, c.getInFlight());
+		assertEquals(4, c.getNbDecreases());
+
+		// additive increase
+		c.onCycle(100);
+		assertEquals(200, c.getBufferSize());
+		assertEquals(2, c.getInFlight());
+		for (int i = 0; i < 20; i++) {
+			c.onCycle(100);
+		}
+		assertEquals(1000, c.getBufferSize());
+		assertEquals(4, c.getInFlight());
+		assertFalse(c.onCycle(100));
+	}
+
+	@Test
+	public void testBounds() {
+		AimdController c = new AimdController(5000, 1000, 0, 0);
+		assertEquals(1000, c.getBufferSize());
+		c.onCycle(10);
+		assertEquals(1000, c.getBufferSize());
+		assertEquals(1, c.getInFlight());
+	}
+
+}
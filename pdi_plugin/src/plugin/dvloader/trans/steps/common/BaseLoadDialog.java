@@ -88,6 +88,25 @@ public abstract class BaseLoadDialog extends BaseStepDialog implements StepDialo
 
 	protected Label wlBatchSize;
 	protected Text wBatchSize;
+	protected Label wlStmtSizes;
+	protected Text wLookupSize;
+	protected Text wInsertBatchSize;
+	protected Label wlCommitPolicy;
+	protected CCombo wCommitPolicy;
+	protected Text wCommitInterval;
+	protected Label wlPipelineDepth;
+	protected Text wPipelineDepth;
+	protected Label wlAdaptive;
+	protected Text wAdaptiveMin;
+	protected Text wAdaptiveTarget;
+	protected Label wlPreserveOrder;
+	protected Button wPreserveOrder;
+	protected Label wlFlushAfter;
+	protected Text wFlushAfter;
+	protected Label wlBufferMemory;
+	protected Text wBufferMemory;
+	// last line of common settings, subclass attaches its widgets below it
+	protected Control lastCommonLine;
 	
 	protected Label wlAuditDTSCol;
 	protected CCombo wAuditDTSCol;
@@ -259,6 +278,8 @@ public abstract class BaseLoadDialog extends BaseStepDialog implements StepDialo
 		fdlBatch.top = new FormAttachment(wTargetTable, margin);
 		wlBatchSize.setLayoutData(fdlBatch);
 		wBatchSize = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wBatchSize.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.Batchsize.Tooltip", Const.CR, 
+				String.valueOf(BaseLoadMeta.MIN_BUFFER_SIZE), String.valueOf(BaseLoadMeta.MAX_SUGG_BUFFER_SIZE)));
 		props.setLook(wBatchSize);
 		wBatchSize.addModifyListener(lsMod);
 		FormData fdBatch = new FormData();
@@ -267,6 +288,179 @@ public abstract class BaseLoadDialog extends BaseStepDialog implements StepDialo
 		fdBatch.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
 		wBatchSize.setLayoutData(fdBatch);
 
+		// Lookup size and insert batch size ...
+		wlStmtSizes = new Label(shell, SWT.RIGHT);
+		wlStmtSizes.setText(BaseMessages.getString(PKG, "LoadDialog.StmtSizes.Label"));
+		props.setLook(wlStmtSizes);
+		FormData fdlStmtSizes = new FormData();
+		fdlStmtSizes.left = new FormAttachment(0, 0);
+		fdlStmtSizes.right = new FormAttachment(middle, -margin);
+		fdlStmtSizes.top = new FormAttachment(wBatchSize, margin);
+		wlStmtSizes.setLayoutData(fdlStmtSizes);
+		wLookupSize = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wLookupSize.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.LookupSize.Tooltip", Const.CR));
+		props.setLook(wLookupSize);
+		wLookupSize.addModifyListener(lsMod);
+		FormData fdLookupSize = new FormData();
+		fdLookupSize.top = new FormAttachment(wBatchSize, margin);
+		fdLookupSize.left = new FormAttachment(middle, 0);
+		fdLookupSize.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
+		wLookupSize.setLayoutData(fdLookupSize);
+		wInsertBatchSize = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wInsertBatchSize.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.InsertBatchSize.Tooltip", Const.CR));
+		props.setLook(wInsertBatchSize);
+		wInsertBatchSize.addModifyListener(lsMod);
+		FormData fdInsertBatchSize = new FormData();
+		fdInsertBatchSize.top = new FormAttachment(wBatchSize, margin);
+		fdInsertBatchSize.left = new FormAttachment(wLookupSize, margin);
+		fdInsertBatchSize.right = new FormAttachment(middle + 2 * (100 - middle) / 3, -margin);
+		wInsertBatchSize.setLayoutData(fdInsertBatchSize);
+
+		// Commit policy ...
+		wlCommitPolicy = new Label(shell, SWT.RIGHT);
+		wlCommitPolicy.setText(BaseMessages.getString(PKG, "LoadDialog.CommitPolicy.Label"));
+		props.setLook(wlCommitPolicy);
+		FormData fdlCommit = new FormData();
+		fdlCommit.left = new FormAttachment(0, 0);
+		fdlCommit.right = new FormAttachment(middle, -margin);
+		fdlCommit.top = new FormAttachment(wLookupSize, margin);
+		wlCommitPolicy.setLayoutData(fdlCommit);
+		wCommitPolicy = new CCombo(shell, SWT.BORDER | SWT.READ_ONLY);
+		for (String policy : BaseLoadMeta.COMMIT_POLICIES) {
+			wCommitPolicy.add(BaseMessages.getString(PKG, "LoadDialog.CommitPolicy." + policy));
+		}
+		wCommitPolicy.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.CommitPolicy.Tooltip", Const.CR));
+		props.setLook(wCommitPolicy);
+		wCommitPolicy.addModifyListener(lsMod);
+		wCommitPolicy.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				setCommitInterval();
+			}
+		});
+		FormData fdCommit = new FormData();
+		fdCommit.top = new FormAttachment(wLookupSize, margin);
+		fdCommit.left = new FormAttachment(middle, 0);
+		fdCommit.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
+		wCommitPolicy.setLayoutData(fdCommit);
+		wCommitInterval = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wCommitInterval.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.CommitInterval.Tooltip"));
+		props.setLook(wCommitInterval);
+		wCommitInterval.addModifyListener(lsMod);
+		FormData fdCommitInt = new FormData();
+		fdCommitInt.top = new FormAttachment(wLookupSize, margin);
+		fdCommitInt.left = new FormAttachment(wCommitPolicy, margin);
+		fdCommitInt.right = new FormAttachment(middle + 2 * (100 - middle) / 3, -margin);
+		wCommitInterval.setLayoutData(fdCommitInt);
+
+		// Pipeline depth ...
+		wlPipelineDepth = new Label(shell, SWT.RIGHT);
+		wlPipelineDepth.setText(BaseMessages.getString(PKG, "LoadDialog.PipelineDepth.Label"));
+		props.setLook(wlPipelineDepth);
+		FormData fdlPipeline = new FormData();
+		fdlPipeline.left = new FormAttachment(0, 0);
+		fdlPipeline.right = new FormAttachment(middle, -margin);
+		fdlPipeline.top = new FormAttachment(wCommitPolicy, margin);
+		wlPipelineDepth.setLayoutData(fdlPipeline);
+		wPipelineDepth = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wPipelineDepth.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.PipelineDepth.Tooltip", Const.CR));
+		props.setLook(wPipelineDepth);
+		wPipelineDepth.addModifyListener(lsMod);
+		FormData fdPipeline = new FormData();
+		fdPipeline.top = new FormAttachment(wCommitPolicy, margin);
+		fdPipeline.left = new FormAttachment(middle, 0);
+		fdPipeline.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
+		wPipelineDepth.setLayoutData(fdPipeline);
+
+		// Adaptive buffer: min size and target latency ...
+		wlAdaptive = new Label(shell, SWT.RIGHT);
+		wlAdaptive.setText(BaseMessages.getString(PKG, "LoadDialog.Adaptive.Label"));
+		props.setLook(wlAdaptive);
+		FormData fdlAdaptive = new FormData();
+		fdlAdaptive.left = new FormAttachment(0, 0);
+		fdlAdaptive.right = new FormAttachment(middle, -margin);
+		fdlAdaptive.top = new FormAttachment(wPipelineDepth, margin);
+		wlAdaptive.setLayoutData(fdlAdaptive);
+		wAdaptiveMin = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wAdaptiveMin.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.AdaptiveMin.Tooltip", Const.CR));
+		props.setLook(wAdaptiveMin);
+		wAdaptiveMin.addModifyListener(lsMod);
+		FormData fdAdaptiveMin = new FormData();
+		fdAdaptiveMin.top = new FormAttachment(wPipelineDepth, margin);
+		fdAdaptiveMin.left = new FormAttachment(middle, 0);
+		fdAdaptiveMin.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
+		wAdaptiveMin.setLayoutData(fdAdaptiveMin);
+		wAdaptiveTarget = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wAdaptiveTarget.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.AdaptiveTarget.Tooltip"));
+		props.setLook(wAdaptiveTarget);
+		wAdaptiveTarget.addModifyListener(lsMod);
+		FormData fdAdaptiveTarget = new FormData();
+		fdAdaptiveTarget.top = new FormAttachment(wPipelineDepth, margin);
+		fdAdaptiveTarget.left = new FormAttachment(wAdaptiveMin, margin);
+		fdAdaptiveTarget.right = new FormAttachment(middle + 2 * (100 - middle) / 3, -margin);
+		wAdaptiveTarget.setLayoutData(fdAdaptiveTarget);
+
+		// Preserve order ?
+		wlPreserveOrder = new Label(shell, SWT.RIGHT);
+		wlPreserveOrder.setText(BaseMessages.getString(PKG, "LoadDialog.PreserveOrder.Label"));
+		props.setLook(wlPreserveOrder);
+		FormData fdlPreserveOrder = new FormData();
+		fdlPreserveOrder.left = new FormAttachment(0, 0);
+		fdlPreserveOrder.right = new FormAttachment(middle, -margin);
+		fdlPreserveOrder.top = new FormAttachment(wAdaptiveMin, margin);
+		wlPreserveOrder.setLayoutData(fdlPreserveOrder);
+		wPreserveOrder = new Button(shell, SWT.CHECK);
+		props.setLook(wPreserveOrder);
+		FormData fdPreserveOrder = new FormData();
+		fdPreserveOrder.left = new FormAttachment(middle, 0);
+		fdPreserveOrder.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
+		fdPreserveOrder.top = new FormAttachment(wAdaptiveMin, margin);
+		wPreserveOrder.setLayoutData(fdPreserveOrder);
+		wPreserveOrder.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.PreserveOrder.Tooltip", Const.CR));
+		wPreserveOrder.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				inputMeta.setChanged();
+			}
+		});
+
+		// Flush partial buffer after ...
+		wlFlushAfter = new Label(shell, SWT.RIGHT);
+		wlFlushAfter.setText(BaseMessages.getString(PKG, "LoadDialog.FlushAfter.Label"));
+		props.setLook(wlFlushAfter);
+		FormData fdlFlushAfter = new FormData();
+		fdlFlushAfter.left = new FormAttachment(0, 0);
+		fdlFlushAfter.right = new FormAttachment(middle, -margin);
+		fdlFlushAfter.top = new FormAttachment(wPreserveOrder, margin);
+		wlFlushAfter.setLayoutData(fdlFlushAfter);
+		wFlushAfter = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wFlushAfter.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.FlushAfter.Tooltip", Const.CR));
+		props.setLook(wFlushAfter);
+		wFlushAfter.addModifyListener(lsMod);
+		FormData fdFlushAfter = new FormData();
+		fdFlushAfter.top = new FormAttachment(wPreserveOrder, margin);
+		fdFlushAfter.left = new FormAttachment(middle, 0);
+		fdFlushAfter.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
+		wFlushAfter.setLayoutData(fdFlushAfter);
+
+		// Buffer memory budget ...
+		wlBufferMemory = new Label(shell, SWT.RIGHT);
+		wlBufferMemory.setText(BaseMessages.getString(PKG, "LoadDialog.BufferMemory.Label"));
+		props.setLook(wlBufferMemory);
+		FormData fdlBufferMemory = new FormData();
+		fdlBufferMemory.left = new FormAttachment(0, 0);
+		fdlBufferMemory.right = new FormAttachment(middle, -margin);
+		fdlBufferMemory.top = new FormAttachment(wFlushAfter, margin);
+		wlBufferMemory.setLayoutData(fdlBufferMemory);
+		wBufferMemory = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wBufferMemory.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.BufferMemory.Tooltip", Const.CR));
+		props.setLook(wBufferMemory);
+		wBufferMemory.addModifyListener(lsMod);
+		FormData fdBufferMemory = new FormData();
+		fdBufferMemory.top = new FormAttachment(wFlushAfter, margin);
+		fdBufferMemory.left = new FormAttachment(middle, 0);
+		fdBufferMemory.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
+		wBufferMemory.setLayoutData(fdBufferMemory);
+		lastCommonLine = wBufferMemory;
+
 		// THE BUTTONS
 		wOK = new Button(shell, SWT.PUSH);
 		wOK.setText(BaseMessages.getString(PKG, "System.Button.OK"));
@@ -419,6 +613,14 @@ public abstract class BaseLoadDialog extends BaseStepDialog implements StepDialo
 		wSchema.addSelectionListener(lsDef);
 		wTargetTable.addSelectionListener(lsDef);
 		wBatchSize.addSelectionListener(lsDef);
+		wLookupSize.addSelectionListener(lsDef);
+		wInsertBatchSize.addSelectionListener(lsDef);
+		wCommitInterval.addSelectionListener(lsDef);
+		wPipelineDepth.addSelectionListener(lsDef);
+		wAdaptiveMin.addSelectionListener(lsDef);
+		wAdaptiveTarget.addSelectionListener(lsDef);
+		wFlushAfter.addSelectionListener(lsDef);
+		wBufferMemory.addSelectionListener(lsDef);
 		wAuditDTSCol.addSelectionListener(lsDef);
 		wAuditRecSrcCol.addSelectionListener(lsDef);
 		wAuditRecSrcVal.addSelectionListener(lsDef);
@@ -642,7 +844,19 @@ public abstract class BaseLoadDialog extends BaseStepDialog implements StepDialo
 			wTargetTable.setText(inputMeta.getTargetTable());
 		}
 
-		wBatchSize.setText("" + inputMeta.getBufferSize());
+		wBatchSize.setText(inputMeta.isAutoBufferSize() ? BaseLoadMeta.AUTO_BUFFER_SIZE : "" + inputMeta.getBufferSize());
+		wLookupSize.setText("" + inputMeta.getLookupSize());
+		wInsertBatchSize.setText("" + inputMeta.getInsertBatchSize());
+		int policyIdx = Const.indexOfString(inputMeta.getCommitPolicy(), BaseLoadMeta.COMMIT_POLICIES);
+		wCommitPolicy.select(policyIdx < 0 ? 0 : policyIdx);
+		wCommitInterval.setText("" + inputMeta.getCommitInterval());
+		setCommitInterval();
+		wPipelineDepth.setText("" + inputMeta.getPipelineDepth());
+		wAdaptiveMin.setText("" + inputMeta.getAdaptiveMinBuffer());
+		wAdaptiveTarget.setText("" + inputMeta.getAdaptiveTargetMs());
+		wPreserveOrder.setSelection(inputMeta.isPreserveOrder());
+		wFlushAfter.setText("" + inputMeta.getFlushAfterMs());
+		wBufferMemory.setText("" + inputMeta.getBufferMemoryMB());
 
 
 		if (inputMeta.getAuditDtsCol() != null) {
@@ -668,8 +882,29 @@ public abstract class BaseLoadDialog extends BaseStepDialog implements StepDialo
 		in.setAuditDtsCol(wAuditDTSCol.getText());
 		in.setAuditRecSourceCol(wAuditRecSrcCol.getText());
 		in.setAuditRecSourceValue(wAuditRecSrcVal.getText());
-		in.setBufferSize(Const.toInt(wBatchSize.getText(), 0));
+		in.setAutoBufferSize(BaseLoadMeta.AUTO_BUFFER_SIZE.equalsIgnoreCase(wBatchSize.getText().trim()));
+		if (!in.isAutoBufferSize()){
+			in.setBufferSize(Const.toInt(wBatchSize.getText(), 0));
+		}
+		in.setLookupSize(Const.toInt(wLookupSize.getText(), 0));
+		in.setInsertBatchSize(Const.toInt(wInsertBatchSize.getText(), 0));
+		int policyIdx = wCommitPolicy.getSelectionIndex();
+		in.setCommitPolicy(BaseLoadMeta.COMMIT_POLICIES[policyIdx < 0 ? 0 : policyIdx]);
+		in.setCommitInterval(Const.toInt(wCommitInterval.getText(), 1));
+		in.setPipelineDepth(Const.toInt(wPipelineDepth.getText(), 0));
+		in.setAdaptiveMinBuffer(Const.toInt(wAdaptiveMin.getText(), 0));
+		in.setAdaptiveTargetMs(Const.toInt(wAdaptiveTarget.getText(), BaseLoadMeta.DEFAULT_ADAPTIVE_TARGET_MS));
+		in.setPreserveOrder(wPreserveOrder.getSelection());
+		in.setFlushAfterMs(Const.toInt(wFlushAfter.getText(), 0));
+		in.setBufferMemoryMB(Const.toInt(wBufferMemory.getText(), 0));
+
+	}
 
+	// interval is meaningless when committing only at end
+	protected void setCommitInterval() {
+		int policyIdx = wCommitPolicy.getSelectionIndex();
+		wCommitInterval.setEnabled(policyIdx < 0 
+				|| !BaseLoadMeta.COMMIT_POLICY_END.equals(BaseLoadMeta.COMMIT_POLICIES[policyIdx]));
 	}
 
 	protected abstract void sql();
@@ -17,8 +17,9 @@
 package plugin.dvloader.trans.steps.common;
 
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.exception.KettleDatabaseException;
@@ -49,6 +50,14 @@ import org.pentaho.di.trans.step.StepMetaInterface;
  * <p>
  * This is controlled with the parameter "Buffer size" defined in UI.
  * <p>
+ * Commit frequency is defined separately by the commit policy.  Rows are only sent 
+ * downstream once their key is committed, so other steps can see it.
+ * <p>
+ * With a pipeline depth > 0, lookup/insert/commit of a buffer run on a worker thread 
+ * (see StagePipeline) while the step thread fills the next buffer and emits rows of completed 
+ * buffers.  Buffers are still processed one at a time in order on the same connection, so a 
+ * lookup always sees keys inserted by previous buffers.
+ * <p>
  * 
  * Most JDBC support Batch mode, although some may just emulate its function. 
  * JDBC supporting batch:  Mysql 5.x+, PostgreSQL 8.x+,  Oracle 11.x+, DB2, SQL-server, even H2 and Derby.
@@ -71,15 +80,16 @@ import org.pentaho.di.trans.step.StepMetaInterface;
  * and increasing likelihood of dead-lock).
  * 
  * The strategy is then to favor <b>batch</b> over multi-threading.  So "# of copies to start.." should 
- * be 1 for these Steps.  
+ * be 1 for these Steps, unless keys are partitioned across copies: each copy then owns the business keys 
+ * whose hash maps to its copy number (rows are routed internally, see PartitionExchange, or 
+ * by PDI when step is partitioned), so no key can be inserted by two copies.  
+ * When partitioned by PDI (locally or clustered), each partition has its own connection, key cache and 
+ * a disjoint range of generated keys (partition number used for "segment" and "table max").  
  * 
- * It may be possible to launch many Steps concurrently but this would be dependent on JDBC driver specifics 
- * and would also only be valid for first scenario below:<ul>
- * <li>1) at time of lookup, business key did not exist, but duplicate will be ignored during "insert" 
- *    when other thread had time to commit same key.
- * <li>2) when two or more threads were able to insert same keys, then commit will fail and entire 
- *    transformation is invalid.
- * </ul>
+ * When copies are not partitioned, missed keys are reserved in-JVM (see KeyReservations) before 
+ * insert: the first copy reserving a key inserts it, other copies commit their own keys, wait on that 
+ * key only (lock stripe) until it is committed, and then read it.  So same key is no longer inserted twice 
+ * (which used to fail at commit).  This only covers steps running in the same JVM.  
  * <p>
  * 
  * 
@@ -88,10 +98,30 @@ import org.pentaho.di.trans.step.StepMetaInterface;
  */
 public class BaseLoadHubLink extends BaseStep implements StepInterface {
 	private static Class<?> PKG = BaseLoadMeta.class;
+	//max wait on input before checking keys awaited by other copies (with reservations)
+	private static final long RESERVATION_POLL_MS = 200;
 	
 	protected LoadHubLinkData data;
 	protected BaseLoadMeta meta;
 	
+	//run DB stage on its own thread (null when not pipelined)
+	private StagePipeline<List<Object[]>, StageOutput> pipeline;
+	//output of buffer being processed by worker (null when not pipelined)
+	private StageOutput stageOutput;
+	//adapt buffer size and in-flight buffers to DB latency (null when static)
+	private AimdController adaptive;
+	//tune buffer size for max throughput ("auto" buffer size, null otherwise)
+	private BufferSizeTuner tuner;
+	//read input on own thread to flush partial buffer in time (null when not time-bounded)
+	private TimedRowReader reader;
+	//release rows in input order (null when order not preserved)
+	private ReorderBuffer reorder;
+	//row waiting for room in inbox of its owner copy (null when none, only with routing)
+	private Object[] routedRow;
+	private int routedOwner;
+	//new rows of a buffer, list cleared and reused by every buffer (rows and keys still allocated)
+	private final List<Object[]> queryParams = new ArrayList<Object[]>();
+	
 	
 	public BaseLoadHubLink(StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr, TransMeta transMeta, Trans trans) {
 		super(stepMeta, stepDataInterface, copyNr, transMeta, trans);
@@ -102,9 +132,27 @@ public class BaseLoadHubLink extends BaseStep implements StepInterface {
 	
 	public boolean processRow(StepMetaInterface smi, StepDataInterface sdi) throws KettleException {
 
-		Object[] originalRow = getRow();
+		//with routing, rows come converted and owned by this copy
+		Object[] originalRow = (data.getExchange() == null) ? readRow() : getRoutedRow();
 		boolean bufferNotFull = true;
 
+		//nothing arrived in time: flush partial buffer (trickle feed)
+		if (originalRow == TimedRowReader.TIMEOUT) {
+			if (first) {
+				return true;
+			}
+			//no max latency: only woken up to release keys awaited by other copies
+			if (data.getBufferRows().size() == 0 || meta.getFlushAfterMs() <= 0) {
+				releaseWhenIdle();
+				return true;
+			}
+			if (log.isDetailed()){
+				logDetailed("Flushing partial buffer of " + data.getBufferRows().size() + " rows after " 
+						+ meta.getFlushAfterMs() + " ms");
+			}
+			return (pipeline != null) ? pipelineBuffer() : processBuffer();
+		}
+
 		if (first) {
 			first = false;
 			if (originalRow != null){
@@ -118,25 +166,41 @@ public class BaseLoadHubLink extends BaseStep implements StepInterface {
 		Object[] rowNullAppended;
 		// Add current row appended with null field to Buffer
 		if (originalRow != null) {
-			//convert fields stored as BINARY (when input relies on lazy conversion)
+			//convert key fields stored as BINARY (when input relies on lazy conversion)
 			//this is done implicitly during setValue(), but doing it here
 			//avoid converting many times downstream
-			if (data.getFieldsInBinary() != null){
-				for (int i=0; i < data.getFieldsInBinary().length; i++){
-					int fi = data.getFieldsInBinary()[i];
-					ValueMetaInterface valueMeta = getInputRowMeta().getValueMeta(fi);
-					originalRow[fi] = valueMeta.convertToNormalStorageType( originalRow[fi] );
-				}
+			if (data.getExchange() == null){
+				convertBinaryFields(originalRow);
 			}
+			//key slot set in place when row has spare slots (PDI over-allocates rows), copied otherwise
 			rowNullAppended = RowDataUtil.addValueData(originalRow, getInputRowMeta().size(), null);
-			bufferNotFull = data.addToBufferRows(rowNullAppended, meta.getBufferSize());
+			if (reorder != null) {
+				if (reorder.isFull()) {
+					flushForOrder();
+				}
+				rowNullAppended = reorder.tag(rowNullAppended);
+			}
+			//known key: row sent right away, only misses are buffered for lookup 
+			if (data.getKeyCache() != null) {
+				Long key = data.getKeyFromCache(rowNullAppended);
+				if (key != null) {
+					rowNullAppended[getInputRowMeta().size()] = key;
+					output(rowNullAppended);
+					return true;
+				}
+			}
+			bufferNotFull = data.addToBufferRows(rowNullAppended, bufferSize());
 		}
 		// Done: no more rows to be expected...
 		else {
 			data.finishedAllRows = true;
+			if (pipeline != null) {
+				return pipelineBuffer();
+			}
 			// Exceptionally buffer is empty, so we're done!
 			// i.e. last processed row filled up buffer
 			if (data.getBufferRows().size() == 0) {
+				commitWhenDue(true);
 				setOutputDone();
 				return false;
 			}
@@ -151,98 +215,618 @@ public class BaseLoadHubLink extends BaseStep implements StepInterface {
 		/*****
 		 * From here: buffer is either full OR partially full with no more rows to process
 		 *****/
+		if (pipeline != null) {
+			return pipelineBuffer();
+		}
+		return processBuffer();
+	}
+	
+	
+	/*
+	 * Next input row.  When buffer flush is time-bounded, returns TIMEOUT once the oldest 
+	 * buffered row waited the max latency (partial buffer must be flushed).  With key 
+	 * reservations, returns TIMEOUT periodically so that keys awaited by another copy get 
+	 * committed even when input stalls (the waiting copy may block upstream).   
+	 */
+	private Object[] readRow() throws KettleException {
+		if (meta.getFlushAfterMs() <= 0 && data.getReservations() == null) {
+			return getRow();
+		}
+		if (reader == null) {
+			reader = TimedRowReader.startFor(this, meta.getBufferSize(), meta.getFlushAfterMs());
+		}
+		if (meta.getFlushAfterMs() <= 0) {
+			return reader.poll(RESERVATION_POLL_MS);
+		}
+		return reader.next(data.getBufferRows().size());
+	}
+	
+	
+	private void convertBinaryFields(Object[] originalRow) throws KettleException {
+		if (data.getFieldsInBinary() != null){
+			for (int i=0; i < data.getFieldsInBinary().length; i++){
+				int fi = data.getFieldsInBinary()[i];
+				ValueMetaInterface valueMeta = getInputRowMeta().getValueMeta(fi);
+				originalRow[fi] = valueMeta.convertToNormalStorageType( originalRow[fi] );
+			}
+		}
+	}
+	
+	
+	/*
+	 * Partitioning by key: return next row owned by this copy, either read from own 
+	 * input (others are sent to their owner copy) or received from other copies.
+	 * Returns null when all copies finished reading and nothing is left for this copy.
+	 */
+	private Object[] getRoutedRow() throws KettleException {
+		PartitionExchange exchange = data.getExchange();
+		try {
+			while (!isStopped()) {
+				if (routedRow != null && exchange.offer(routedOwner, routedRow)) {
+					routedRow = null;
+				}
+				Object[] r = exchange.poll(getCopy());
+				if (r == null && routedRow != null) {
+					//owner's inbox full: drain own inbox meanwhile (copies never wait on each other)
+					r = exchange.poll(getCopy(), 10);
+				} else if (r == null && !data.finishedReading) {
+					r = getRow();
+					if (r == null) {
+						data.finishedReading = true;
+						exchange.finishedReading();
+						continue;
+					}
+					if (first) {
+						first = false;
+						initializeWithFirstRow();
+						exchange.setInputRowMeta(getInputRowMeta());
+					}
+					convertBinaryFields(r);
+					int owner = PartitionExchange.ownerOf(data.getKeysHash(r), exchange.getNbCopies());
+					if (owner != getCopy()) {
+						if (!exchange.offer(owner, r)) {
+							routedRow = r;
+							routedOwner = owner;
+						}
+						continue;
+					}
+				} else if (r == null) {
+					if (exchange.isDone(getCopy())) {
+						return null;
+					}
+					r = exchange.poll(getCopy(), 100);
+				}
+				if (r != null) {
+					//rows received before reading any own row
+					if (getInputRowMeta() == null) {
+						setInputRowMeta(exchange.getInputRowMeta());
+					}
+					return r;
+				}
+			}
+		} catch (InterruptedException e) {
+			throw new KettleStepException(e);
+		}
+		return null;
+	}
+	
+	
+	private boolean processBuffer() throws KettleException {
+		long start = System.currentTimeMillis();
+		int nbRows = data.getBufferRows().size();
+		loadBuffer(data.getBufferRows(), data.finishedAllRows);
+		adapt(start, nbRows);
+		
+		/***** step-5 --> Continue processing or Exit if no more rows *****/
+		if (!data.finishedAllRows) {
+			return true;
+		} else {
+			setOutputDone();
+			return false;
+		}
+	}
+	
+	
+	/*
+	 * Feed latency of buffer just processed to buffer tuner or adaptive controller (when used) 
+	 */
+	private void adapt(long startMs, int nbRows) {
+		long elapsed = System.currentTimeMillis() - startMs;
+		if (tuner != null){
+			if (tuner.onCycle(nbRows, elapsed) && log.isDetailed()){
+				logDetailed("Buffer of " + nbRows + " rows processed in " + elapsed + " ms, tuned to " + tuner);
+			}
+			return;
+		}
+		if (adaptive == null){
+			return;
+		}
+		if (adaptive.onCycle(elapsed)){
+			if (pipeline != null){
+				pipeline.setMaxInFlight(adaptive.getInFlight());
+			}
+			if (log.isDetailed()){
+				logDetailed("Buffer processed in " + elapsed + " ms, adapted to " + adaptive);
+			}
+		}
+	}
+	
+	private int bufferSize() {
+		if (tuner != null){
+			return tuner.getBufferSize();
+		}
+		return (adaptive == null) ? meta.getBufferSize() : adaptive.getBufferSize();
+	}
+	
+	
+	/*
+	 * Pipelined mode: buffer is handed off to the worker (lookup, insert and commit), 
+	 * while this thread goes on filling next buffer and emitting rows of completed ones  
+	 */
+	private boolean pipelineBuffer() throws KettleException {
+		if (data.getBufferRows().size() > 0) {
+			pipeline.submit(data.swapBufferRows(), stageEmitter);
+		}
+		if (!data.finishedAllRows) {
+			pipeline.emitCompleted(stageEmitter);
+			return true;
+		}
+		pipeline.finish(stageEmitter);
+		commitWhenDue(true);
+		setOutputDone();
+		return false;
+	}
+	
+	
+	/*
+	 * Input is idle: send rows of buffers completed by the worker, and commit when due 
+	 * (e.g. policy in seconds) to release rows held for their key.  In pipelined mode, 
+	 * commit is left to the worker while it still has buffers.
+	 */
+	private void releaseWhenIdle() throws KettleException {
+		if (pipeline != null) {
+			pipeline.emitCompleted(stageEmitter);
+			if (pipeline.getInFlight() > 0) {
+				return;
+			}
+		}
+		commitWhenDue(false);
+	}
+	
+	/*
+	 * Reorder ring is full: process buffered rows and commit so that all tagged rows 
+	 * are sent downstream (commit forced before due)
+	 */
+	private void flushForOrder() throws KettleException {
+		if (log.isDetailed()){
+			logDetailed("Reorder buffer full (" + reorder.getWaiting() + " rows waiting), flushing before due");
+		}
+		if (pipeline != null) {
+			if (data.getBufferRows().size() > 0) {
+				pipeline.submit(data.swapBufferRows(), stageEmitter);
+			}
+			pipeline.awaitIdle(stageEmitter);
+		} else if (data.getBufferRows().size() > 0) {
+			processBuffer();
+		}
+		if (data.getCommitTracker().hasUncommitted()){
+			commit();
+		}
+	}
+	
+	
+	/*
+	 * Rows emitted by one buffer processed in pipelined mode 
+	 */
+	private static class StageOutput {
+		private List<Object[]> rows = new ArrayList<Object[]>();
+		private List<Object[]> errorRows = new ArrayList<Object[]>();
+		private List<String> errorCauses = new ArrayList<String>();
+	}
+	
+	private final StagePipeline.Emitter<StageOutput> stageEmitter = new StagePipeline.Emitter<StageOutput>() {
+		public void emit(StageOutput out) throws KettleException {
+			for (Object[] r : out.rows) {
+				output(r);
+			}
+			for (int i = 0; i < out.errorRows.size(); i++) {
+				outputError(out.errorRows.get(i), out.errorCauses.get(i));
+			}
+		}
+	};
+	
+	private final StagePipeline.Stage<List<Object[]>, StageOutput> loadStage = new StagePipeline.Stage<List<Object[]>, StageOutput>() {
+		public StageOutput process(List<Object[]> buffer) throws Exception {
+			stageOutput = new StageOutput();
+			long start = System.currentTimeMillis();
+			int nbRows = buffer.size();
+			try {
+				//final commit is done by step thread once pipeline is finished
+				loadBuffer(buffer, false);
+				adapt(start, nbRows);
+				return stageOutput;
+			} finally {
+				stageOutput = null;
+			}
+		}
+	};
+	
+	
+	
+	/*
+	 * Lookup, insert new keys and commit when due, rows are emitted once processed
+	 */
+	private void loadBuffer(List<Object[]> buffer, boolean endOfInput) throws KettleException {
 		
 		/***** step-1 --> Query DB and fill LookupMap  ******/
 
-		int nbLookup = data.populateMap(data.getBufferRows(),meta.getBufferSize());
+		int nbLookup;
+		if (data.isInitialLoad()){
+			//target was empty: only keys loaded by this step can be found
+			nbLookup = data.populateMapFromLoadedKeys(buffer);
+		} else {
+			nbLookup = data.populateMap(buffer,meta.getLookupParamsSize());
+		}
 		if (log.isDetailed()){
 			logDetailed("Buffer filled, number of fetched hub records from DB= " + nbLookup);	
 		}
 
 		/***** step-2 --> Manage existing: append key, send downstream & remove from buffer *****/
 		if (nbLookup > 0){
-			processBufferAndSendRows(getInputRowMeta().size());	
+			processBufferAndSendRows(buffer, getInputRowMeta().size());	
 			// Processing finished when all keys were found!
-			if (data.getBufferRows().size() == 0) {
-				if (!data.finishedAllRows) {
-					return true;
+			if (buffer.size() == 0) {
+				commitWhenDue(endOfInput);
+				return;
+			}
+		}
+		
+		/***** step-3 --> Add new rows to Batch while updating LookupMap ******/
+		queryParams.clear();
+		//missed keys being loaded by another step copy (only with reservations)
+		List<CompositeKeys> contendedKeys = null;
+		for (Object[] newRow : buffer){
+			//key built once for map and reservation
+			CompositeKeys k = new CompositeKeys(newRow, data.getKeysRowIdx());
+			if (data.putKeyInMap(k,null)){
+				if (data.getReservations() == null || data.reserveKey(k)){
+					queryParams.add(newRow);
 				} else {
-					setOutputDone();
-					return false;
+					if (contendedKeys == null){
+						contendedKeys = new ArrayList<CompositeKeys>();
+					}
+					contendedKeys.add(k);
 				}
 			}
 		}
 		
-		/***** step-3 --> Add new rows to Batch while updating LookupMap ******/
-		//needed for key generation: TABLEMAX
-		Long newKey = null;
+		//consistent lock order between concurrent writers
+		if (meta.isSortNewKeys() && queryParams.size() > 1){
+			data.sortByKeys(queryParams);
+		}
 		
-		List<Object[]> queryParams = new ArrayList<Object[]>(meta.getBufferSize()+10);
-		for (Object[] newRow : data.getBufferRows()){
-			if (!data.putKeyInMap(newRow,null)){
-				continue;
-			}
-			//Append key for TABLEMAX
-			if (meta.isMethodTableMax()){
+		//new keys known up front for TABLEMAX, SEGMENT and prefetched sequence
+		List<Long> newKeys = null;
+		if (meta.isMethodTableMax() && data.hasPartitionKeyRange()){
+			//partition own keys: no DB round-trip
+			newKeys = data.nextPartitionKeys(queryParams.size());
+		} else if (meta.isMethodTableMax()){
+			newKeys = new ArrayList<Long>(queryParams.size());
+			for (int i = 0; i < queryParams.size(); i++){
 				//fetch the next Key (this takes care of synchronization, but has a nasty bug: 
 				//change rowMeta state in Database, so cannot call methods like getRows() subsequently..
-				newKey = data.db.getNextValue( getTrans().getCounters(), meta.getSchemaName(),
-						 		meta.getTargetTable(), meta.getTechKeyCol());
-			} 
-			data.addBatchInsert(meta, newRow, newKey);
-			incrementLinesOutput();
-			queryParams.add(newRow);
+				newKeys.add(data.db.getNextValue( getTrans().getCounters(), meta.getSchemaName(),
+						 		meta.getTargetTable(), meta.getTechKeyCol()));
+			}
+		} else if (meta.isMethodSegment()){
+			//no DB round-trip
+			newKeys = data.nextSegmentKeys(queryParams.size());
+		} else if (meta.isKeyAssignedByStep()){
+			//one query per buffer
+			newKeys = data.fetchSequenceValues(queryParams.size());
 		}
 		
-		/***** step-4 --> Execute batch, fill Map with new keys, validate and if OK: commit ******/
-		data.executeBatchInsert(meta, queryParams.size());
+		/***** step-4 --> Execute batch, fill Map with new keys, validate and commit when due ******/
+		boolean allInserted;
+		// rows rejected by DB (recovery mode only) with their error
+		List<Object[]> rejectedRows = null;
+		Map<CompositeKeys, String> rejectCauses = null;
+		if (data.isInitialLoad()){
+			if (!data.executeBatchInsertInitialLoad(meta, queryParams, newKeys)){
+				//another writer loaded same key(s): reprocess remaining buffer in normal mode
+				switchToNormalLoad("Load.Log.InitialLoadOtherWriter");
+				loadBuffer(buffer, endOfInput);
+				return;
+			}
+			allInserted = true;
+		} else if (data.isBatchRecovery()){
+			BatchBisector bisector = data.executeBatchInsertWithRecovery(meta, queryParams, newKeys);
+			allInserted = true;
+			if (bisector.getRejected().size() > 0){
+				rejectedRows = new ArrayList<Object[]>(bisector.getRejected().size());
+				rejectCauses = new HashMap<CompositeKeys, String>();
+				//remove from last to keep index valid
+				for (int i = bisector.getRejected().size() - 1; i >= 0; i--){
+					int idx = bisector.getRejected().get(i);
+					Object[] r = queryParams.remove(idx);
+					if (newKeys != null){
+						newKeys.remove(idx);
+					}
+					rejectedRows.add(r);
+					rejectCauses.put(new CompositeKeys(r, data.getKeysRowIdx()), bisector.getRejectCause(i).getMessage());
+				}
+				logError(BaseMessages.getString(PKG, "Load.Log.RowsRejectedByBatch", String.valueOf(rejectedRows.size())));
+			}
+		} else {
+			allInserted = data.executeBatchInsert(meta, queryParams, newKeys);
+		}
+		for (int i = 0; i < queryParams.size(); i++){
+			incrementLinesOutput();
+		}
+		data.getCommitTracker().addBuffer(queryParams.size());
 
-		int rowsAdded = data.populateMap(queryParams,meta.getBufferSize());		
-		if (rowsAdded != queryParams.size()){
-			data.db.rollback();
-			throw new IllegalStateException("DB state error, nb of new keys loaded= " 
-								+ rowsAdded + " but expecting= " + queryParams.size() );
+		if (newKeys != null && allInserted){
+			//rejected may be key loaded meanwhile by another writer (populateMap clears previous mapping)
+			if (rejectedRows != null){
+				data.populateMap(rejectedRows, meta.getLookupParamsSize());
+			}
+			data.putNewKeysInMap(queryParams, newKeys);
+		} else {
+			//re-lookup needed to read keys generated by DB (or to validate after batch failure) 
+			List<Object[]> lookupRows = queryParams;
+			if (rejectedRows != null){
+				lookupRows = new ArrayList<Object[]>(queryParams);
+				lookupRows.addAll(rejectedRows);
+			}
+			data.populateMap(lookupRows, meta.getLookupParamsSize());
+			int rowsAdded = 0;
+			for (Object[] r : queryParams){
+				if (data.getKeyfromLookupMap(r) != null){
+					rowsAdded++;
+				}
+			}
+			if (rowsAdded != queryParams.size()){
+				data.db.rollback();
+				throw new IllegalStateException("DB state error, nb of new keys loaded= " 
+									+ rowsAdded + " but expecting= " + queryParams.size() );
+			}
+		}
+		if (data.isInitialLoad() && !data.addLoadedKeys()){
+			switchToNormalLoad("Load.Log.InitialLoadMaxKeys");
 		}
 		//process remaining of Buffer with new Mapping
-		processBufferAndSendRows(getInputRowMeta().size());
+		processBufferAndSendRows(buffer, getInputRowMeta().size());
+		
+		//rows left have been rejected by DB  
+		if (rejectCauses != null){
+			sendRejectedRows(buffer, rejectCauses);
+		}
+		
+		//rows left have keys loaded by another copy: release own keys, wait for theirs and reprocess 
+		if (contendedKeys != null){
+			if (log.isDetailed()){
+				logDetailed("Waiting on " + contendedKeys.size() + " key(s) loaded by another step copy");
+			}
+			commit();
+			awaitReleased(contendedKeys);
+			if (!isStopped()){
+				loadBuffer(buffer, endOfInput);
+			}
+			return;
+		}
 
 		//At this point all rows should be treated, check for programming logic fault
-		if (data.getBufferRows().size() > 0 )
+		if (buffer.size() > 0 )
 			throw new IllegalStateException("Buffer should be empty, check program logic");
 		
+		commitWhenDue(endOfInput);
+	}
 	
-		/***** step-5 --> Continue processing or Exit if no more rows *****/
-		if (!data.finishedAllRows) {
-			return true;
+	
+	private void processBufferAndSendRows(List<Object[]> buffer, final int newKeyPos) throws KettleStepException{
+		// one pass removal of existing rows (keeps order of remaining)
+		BufferCompactor.compact(buffer, new BufferCompactor.Resolver<Object[]>() {
+			public boolean resolve(Object[] r) throws KettleStepException {
+				Long key = data.getKeyfromLookupMap(r);
+				if (key != null) {
+					r[newKeyPos] = key;
+					data.stageCachedKey(r, key);
+					sendRow(r);
+					return true;
+				}
+				return false;
+			}
+		});
+	}
+	
+	/*
+	 * Key may not be committed yet: hold row until commit so that other steps 
+	 * (on their own connection) can see the key.  Not needed when connection is shared. 
+	 */
+	private void sendRow(Object[] r) throws KettleStepException {
+		if (data.getCommitTracker().hasUncommitted() && !getTransMeta().isUsingUniqueConnections()){
+			data.getPendingRows().add(r);
 		} else {
-			setOutputDone();
-			return false;
+			emitRow(r);
+		}
+	}
+	
+	/*
+	 * In pipelined mode, rows are emitted by step thread once the worker has processed buffer 
+	 */
+	private void emitRow(Object[] r) throws KettleStepException {
+		if (stageOutput != null) {
+			stageOutput.rows.add(r);
+		} else {
+			output(r);
+		}
+	}
+	
+	
+	/*
+	 * Send row downstream (in input order when preserved) 
+	 */
+	private void output(Object[] r) throws KettleStepException {
+		if (reorder != null) {
+			reorder.release(r);
+		} else {
+			putRow(data.outputRowMeta, r);
 		}
-		
 	}
 	
+	private void outputError(Object[] r, String cause) throws KettleStepException {
+		//free slot before row is handed to error step
+		if (reorder != null) {
+			reorder.skip(r);
+		}
+		putError(getInputRowMeta(), r, 1, cause, null, "DVLOAD001");
+	}
+	
+	private final ReorderBuffer.Output reorderOutput = new ReorderBuffer.Output() {
+		public void put(Object[] row) throws KettleStepException {
+			putRow(data.outputRowMeta, row);
+		}
+	};
+	
+	private void switchToNormalLoad(String reasonKey){
+		logBasic(BaseMessages.getString(PKG, reasonKey));
+		data.setInitialLoad(false);
+	}
 	
-	private void processBufferAndSendRows(int newKeyPos) throws KettleStepException{
-		// using Iterator to remove safely existing rows
-		Iterator<Object[]> iter = data.getBufferRows().iterator();
-		while (iter.hasNext()) {
-			Object[] r = iter.next();
-			Long key = data.getKeyfromLookupMap(r);
-			if (key != null) {
-				r[newKeyPos] = key;
-				putRow(data.outputRowMeta, r);
-				iter.remove();
+	/*
+	 * Send rows rejected by DB to error handling 
+	 */
+	private void sendRejectedRows(List<Object[]> buffer, final Map<CompositeKeys, String> rejectCauses) throws KettleStepException {
+		BufferCompactor.compact(buffer, new BufferCompactor.Resolver<Object[]>() {
+			public boolean resolve(Object[] r) throws KettleStepException {
+				String cause = rejectCauses.get(new CompositeKeys(r, data.getKeysRowIdx()));
+				if (cause == null) {
+					return false;
+				}
+				if (stageOutput != null) {
+					stageOutput.errorRows.add(r);
+					stageOutput.errorCauses.add(cause);
+				} else {
+					outputError(r, cause);
+				}
+				return true;
+			}
+		});
+	}
+	
+	/*
+	 * Commit according to commit policy, then release rows held for their keys  
+	 */
+	private void commitWhenDue(boolean endOfInput) throws KettleException {
+		if (data.getCommitTracker().isCommitDue(endOfInput)){
+			commit();
+		} else if (data.isHeldRowsFull()){
+			//bound memory of rows held for their key (e.g. policy "end" without spilling)
+			logDetailed(BaseMessages.getString(PKG, "Load.Log.HeldRowsCommit", 
+					String.valueOf(data.getPendingRows().size())));
+			commit();
+		} else if (data.isReservationAwaited()){
+			//other copy waits on own keys: never hold them until due (dead-lock)
+			logDetailed(BaseMessages.getString(PKG, "Load.Log.AwaitedCommit"));
+			commit();
+		}
+	}
+	
+	private void commit() throws KettleException {
+		data.db.commit();
+		data.getCommitTracker().committed();
+		data.publishCachedKeys();
+		data.releaseReservedKeys();
+		data.getPendingRows().drain(pendingOutput);
+	}
+	
+	private final SpillableRowList.Output pendingOutput = new SpillableRowList.Output() {
+		public void put(Object[] row) throws KettleStepException {
+			emitRow(row);
+		}
+	};
+	
+	/*
+	 * Never called while holding own reservations (no dead-lock between copies)
+	 */
+	private void awaitReleased(List<CompositeKeys> keys) throws KettleException {
+		try {
+			for (CompositeKeys k : keys) {
+				while (!data.getReservations().awaitRelease(k, 500)) {
+					if (isStopped()) {
+						return;
+					}
+				}
 			}
+		} catch (InterruptedException e) {
+			throw new KettleStepException(e);
 		}
 	}
 	
 	
+	/*
+	 * Number of partition handled by this step (PDI partition schema), -1 when not partitioned 
+	 */
+	private int getPartitionNr() {
+		if (!getStepMeta().isPartitioned() || getPartitionID() == null){
+			return -1;
+		}
+		List<String> ids = getStepMeta().getStepPartitioningMeta().getPartitionSchema().getPartitionIDs();
+		return (ids == null || ids.size() < 2) ? -1 : ids.indexOf(getPartitionID());
+	}
+	
+	
 	private void initializeWithFirstRow() throws KettleStepException, KettleDatabaseException {
 		data.outputRowMeta = getInputRowMeta().clone();
 		data.initializeRowProcessing((BaseLoadMeta) meta);
-		data.initPrepStmtLookup( (BaseLoadMeta) meta, meta.getBufferSize());
+		data.initPrepStmtLookup( (BaseLoadMeta) meta, meta.getLookupParamsSize());
 		data.initPrepStmtInsert( (BaseLoadMeta) meta);
+		if (meta.isMethodSequence() && meta.isPrefetchSequence()){
+			data.initPrepStmtSequence( (BaseLoadMeta) meta);
+		}
+		//when partitioned, keys are generated per partition (copy numbers may repeat across slave servers)
+		int partitionNr = getPartitionNr();
+		if (meta.isMethodSegment()){
+			data.initSegmentKeyGenerator( (BaseLoadMeta) meta, (partitionNr < 0) ? getCopy() : partitionNr);
+		} else if (meta.isMethodTableMax() && partitionNr >= 0){
+			data.initPartitionKeyRange( (BaseLoadMeta) meta, partitionNr, 
+					getStepMeta().getStepPartitioningMeta().getPartitionSchema().getPartitionIDs().size());
+		}
+		//copies not partitioned by key: reserve missed keys so only one copy inserts them
+		if (getStepMeta().getCopies() > 1 && data.getExchange() == null && !getStepMeta().isPartitioned()){
+			data.joinReservations(meta);
+		}
+		//initial load fast path requires an empty target (and savepoint to fall back safely)
+		if (meta.isInitialLoad()){
+			if (!BatchBisector.isSupported(data.db)){
+				logBasic(BaseMessages.getString(PKG, "Load.Log.NoSavepointSupport"));
+			} else if (data.isTargetEmpty(meta)){
+				logBasic(BaseMessages.getString(PKG, "Load.Log.InitialLoadStarted"));
+				data.setInitialLoad(true);
+			} else {
+				logBasic(BaseMessages.getString(PKG, "Load.Log.InitialLoadTargetNotEmpty"));
+			}
+		}
 		meta.getFields( data.outputRowMeta, getStepname(), null, null, this, repository, metaStore );
+		if (meta.isPreserveOrder()){
+			//rows in-flight plus rows held until commit, ring full forces a flush
+			reorder = new ReorderBuffer(meta.getBufferSize() * (meta.getPipelineDepth() + 2) * 2, 
+					data.outputRowMeta.size(), reorderOutput);
+		}
+		if (meta.isAutoBufferSize()){
+			tuner = new BufferSizeTuner(BaseLoadMeta.MIN_BUFFER_SIZE, meta.getBufferSize(), 
+					BaseLoadMeta.MIN_BUFFER_SIZE * 10);
+		} else if (meta.isAdaptiveBuffer()){
+			adaptive = new AimdController(meta.getAdaptiveMinBuffer(), meta.getBufferSize(), 
+					meta.getPipelineDepth() + 1, meta.getAdaptiveTargetMs());
+		}
+		//DB stage (lookup, insert, commit) runs on its own thread, serially on the step connection
+		if (meta.getPipelineDepth() > 0){
+			pipeline = new StagePipeline<List<Object[]>, StageOutput>(getStepname() + "." + getCopy() + " load", 
+					meta.getPipelineDepth(), loadStage);
+			pipeline.start();
+			logBasic("Pipelined DB stage on " + (IoExecutors.isVirtual() ? "virtual" : "platform") + " thread");
+		}
 	}		
 		
 	
@@ -272,6 +856,18 @@ public boolean init(StepMetaInterface sii, StepDataInterface sdi) {
 				}
 				//Commit is taken care of explicitly
 				data.db.setAutoCommit(false);
+				//Each copy owns keys whose hash maps to its copy number (not needed when partitioned by PDI)
+				if (meta.isPartitionByKey() && getStepMeta().getCopies() > 1 && !getStepMeta().isPartitioned()){
+					data.setExchange(PartitionExchange.join(getTrans(), getStepname(), getStepMeta().getCopies(), 
+							meta.getBufferSize()));
+				}
+				//With error handling, rows rejected by batch are isolated using savepoints
+				if (getStepMeta().isDoingErrorHandling()){
+					data.setBatchRecovery(BatchBisector.isSupported(data.db));
+					if (!data.isBatchRecovery()){
+						logBasic(BaseMessages.getString(PKG, "Load.Log.NoSavepointSupport"));
+					}
+				}
 
 				return true;
 			} catch (KettleDatabaseException dbe) {
@@ -286,6 +882,30 @@ public void dispose(StepMetaInterface smi, StepDataInterface sdi) {
 	meta = (BaseLoadMeta) smi;
 	data = (LoadHubLinkData) sdi;
 
+	if (pipeline != null) {
+		pipeline.stop();
+	}
+	if (reader != null) {
+		reader.stop();
+	}
+	if (data.getKeyCache() != null) {
+		logBasic("Key cache hits= " + data.getKeyCache().getHits() + ", misses= " + data.getKeyCache().getMisses());
+	}
+	if (tuner != null) {
+		logBasic("Auto buffer size chosen: " + tuner);
+	}
+	if (adaptive != null) {
+		logBasic("Adaptive buffer ended with " + adaptive + " (" + adaptive.getNbDecreases() + " back-offs)");
+	}
+	if (data.getPendingRows() != null) {
+		if (data.getPendingRows().getTotalSpilled() > 0) {
+			logBasic("Held rows spilled to temp file= " + data.getPendingRows().getTotalSpilled());
+		}
+		data.getPendingRows().close();
+	}
+	if (data.getExchange() != null) {
+		PartitionExchange.leave(getTrans(), getStepname());
+	}
 	if (data.db != null) {
 		try {
 			//TODO: is this proper error handling.. to validate and align 
@@ -296,6 +916,9 @@ public void dispose(StepMetaInterface smi, StepDataInterface sdi) {
 			}
 			data.db.closePreparedStatement(data.getPrepStmtLookup());
 			data.db.closePreparedStatement(data.getPrepStmtInsert());
+			if (data.getPrepStmtSequence() != null){
+				data.db.closePreparedStatement(data.getPrepStmtSequence());
+			}
 			//data.db.closePreparedStatement(data.getPrepStmtUpdateSat());	
 		} catch (KettleDatabaseException e) {
 			logError(BaseMessages.getString(PKG, "Load.Log.UnexpectedError") + " : " + e.toString());
@@ -303,6 +926,10 @@ public void dispose(StepMetaInterface smi, StepDataInterface sdi) {
 			data.db.disconnect();
 		}
 	}
+	//after commit/rollback: waiting copies then read (or load) the keys
+	if (data.getReservations() != null) {
+		data.leaveReservations(meta);
+	}
 	super.dispose(smi, sdi);
 }
 	
@@ -24,6 +24,8 @@ import org.pentaho.di.core.Const;
 import org.pentaho.di.core.SQLStatement;
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.database.MSSQLServerDatabaseMeta;
+import org.pentaho.di.core.database.OracleDatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
 import org.pentaho.di.core.exception.KettleXMLException;
@@ -35,6 +37,7 @@ import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.repository.ObjectId;
 import org.pentaho.di.repository.Repository;
 import org.pentaho.di.shared.SharedObjectInterface;
+import org.pentaho.di.trans.ModPartitioner;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.BaseStepMeta;
 import org.pentaho.di.trans.step.StepMeta;
@@ -60,21 +63,70 @@ public abstract class BaseLoadMeta extends BaseStepMeta implements StepMetaInter
 
 	public static int MAX_SUGG_BUFFER_SIZE = 5000;	
 	public static int MIN_BUFFER_SIZE = 50;
+	//keys per lookup query when buffer size is "auto" and no lookup size is set
+	public static int AUTO_LOOKUP_SIZE = 1000;
+	//DB limits on lookup query: bind parameters (SQL Server), items of IN-list (Oracle)
+	public static int MSSQL_MAX_PARAMS = 2100;
+	public static int ORACLE_MAX_IN_LIST = 1000;
+	public static int DEFAULT_ADAPTIVE_TARGET_MS = 1000;
+	public static String AUTO_BUFFER_SIZE = "auto";
 	
 	public static String CREATION_METHOD_AUTOINC = "autoinc";
 	public static String CREATION_METHOD_SEQUENCE = "sequence";
 	public static String CREATION_METHOD_TABLEMAX = "tablemax";
+	//in-process key generation (see SegmentKeyGenerator)
+	public static String CREATION_METHOD_SEGMENT = "segment";
+
+	//commit policy: every N buffers (default N=1), every N rows, every N seconds or only at end
+	public static String COMMIT_POLICY_BUFFER = "buffer";
+	public static String COMMIT_POLICY_ROWS = "rows";
+	public static String COMMIT_POLICY_SECONDS = "seconds";
+	public static String COMMIT_POLICY_END = "end";
+	public static String[] COMMIT_POLICIES = new String[] { COMMIT_POLICY_BUFFER, COMMIT_POLICY_ROWS, 
+			COMMIT_POLICY_SECONDS, COMMIT_POLICY_END };
 
 	protected DatabaseMeta databaseMeta;
 	protected String schemaName;
 	protected String targetTable;
 	protected int bufferSize;
+	//buffer size tuned while running (up to MAX_SUGG_BUFFER_SIZE)
+	protected boolean autoBufferSize;
+	//nb of keys per lookup query (0= buffer size)
+	protected int lookupSize;
+	//nb of rows per JDBC batch execution (0= buffer size)
+	protected int insertBatchSize;
+	protected String commitPolicy;
+	protected int commitInterval;
+	//nb of buffers waiting for the DB stage running on its own thread (0= not pipelined)
+	protected int pipelineDepth;
+	//adapt buffer size (between this min and bufferSize) to DB latency (0= static buffer)
+	protected int adaptiveMinBuffer;
+	//target latency of one buffer cycle when adaptive
+	protected int adaptiveTargetMs;
+	//send rows downstream in input order
+	protected boolean preserveOrder;
+	//max time a row waits in a partial buffer (trickle feeds, 0= until buffer is full)
+	protected int flushAfterMs;
+	//flush buffer once its estimated heap size (rows and lookup structures) reaches this (0= rows only)
+	protected int bufferMemoryMB;
 	protected String[] fields;
 	protected String[] cols;
 	protected String[] types;
 	protected String techKeyCol;
 	protected String keyGeneration;
 	protected String sequenceName;
+	//fetch sequence values in one query per buffer (bound as normal params)
+	protected boolean prefetchSequence;
+	//skip lookups when target is empty at start (Hub/Link)
+	protected boolean initialLoad;
+	//each step copy owns keys whose hash maps to its copy number (Hub/Link)
+	protected boolean partitionByKey;
+	//insert new keys sorted on business keys, so concurrent writers lock index in same order (Hub/Link)
+	protected boolean sortNewKeys;
+	//max nb of committed keys cached, rows with cached key are sent without buffering (Hub/Link, 0= no cache)
+	protected int keyCacheSize;
+	//rows held until their keys are committed spill to temp file above this (Hub/Link, 0= never spill)
+	protected int spillAfterMB;
 	
 	protected String auditDtsCol;
 	protected String auditRecSourceCol;
@@ -100,6 +152,12 @@ public abstract class BaseLoadMeta extends BaseStepMeta implements StepMetaInter
 		targetTable = "";
 		databaseMeta = null;
 		bufferSize = MIN_BUFFER_SIZE*10;
+		commitPolicy = COMMIT_POLICY_BUFFER;
+		commitInterval = 1;
+		pipelineDepth = 0;
+		adaptiveMinBuffer = 0;
+		adaptiveTargetMs = DEFAULT_ADAPTIVE_TARGET_MS;
+		preserveOrder = false;
 		//rest to be implemented by subclass 	
 	}
 
@@ -120,6 +178,17 @@ public abstract class BaseLoadMeta extends BaseStepMeta implements StepMetaInter
 		retval.append("  ").append(XMLHandler.addTagValue("schemaName", schemaName));
 		retval.append("  ").append(XMLHandler.addTagValue("targetTable", targetTable));
 		retval.append("  ").append(XMLHandler.addTagValue("batchSize", bufferSize));
+		retval.append("  ").append(XMLHandler.addTagValue("lookupSize", lookupSize));
+		retval.append("  ").append(XMLHandler.addTagValue("insertBatchSize", insertBatchSize));
+		retval.append("  ").append(XMLHandler.addTagValue("autoBufferSize", autoBufferSize));
+		retval.append("  ").append(XMLHandler.addTagValue("commitPolicy", commitPolicy));
+		retval.append("  ").append(XMLHandler.addTagValue("commitInterval", commitInterval));
+		retval.append("  ").append(XMLHandler.addTagValue("pipelineDepth", pipelineDepth));
+		retval.append("  ").append(XMLHandler.addTagValue("adaptiveMinBuffer", adaptiveMinBuffer));
+		retval.append("  ").append(XMLHandler.addTagValue("adaptiveTargetMs", adaptiveTargetMs));
+		retval.append("  ").append(XMLHandler.addTagValue("preserveOrder", preserveOrder));
+		retval.append("  ").append(XMLHandler.addTagValue("flushAfterMs", flushAfterMs));
+		retval.append("  ").append(XMLHandler.addTagValue("bufferMemoryMB", bufferMemoryMB));
 
 		retval.append("  <fields>").append(Const.CR);
 		for (int i = 0; i < fields.length; i++) {
@@ -151,6 +220,17 @@ public abstract class BaseLoadMeta extends BaseStepMeta implements StepMetaInter
 			rep.saveStepAttribute(id_transformation, id_step, "schemaName", schemaName);
 			rep.saveStepAttribute(id_transformation, id_step, "targetTable", targetTable);
 			rep.saveStepAttribute(id_transformation, id_step, "batchSize", bufferSize);
+			rep.saveStepAttribute(id_transformation, id_step, "lookupSize", lookupSize);
+			rep.saveStepAttribute(id_transformation, id_step, "insertBatchSize", insertBatchSize);
+			rep.saveStepAttribute(id_transformation, id_step, "autoBufferSize", autoBufferSize);
+			rep.saveStepAttribute(id_transformation, id_step, "commitPolicy", commitPolicy);
+			rep.saveStepAttribute(id_transformation, id_step, "commitInterval", commitInterval);
+			rep.saveStepAttribute(id_transformation, id_step, "pipelineDepth", pipelineDepth);
+			rep.saveStepAttribute(id_transformation, id_step, "adaptiveMinBuffer", adaptiveMinBuffer);
+			rep.saveStepAttribute(id_transformation, id_step, "adaptiveTargetMs", adaptiveTargetMs);
+			rep.saveStepAttribute(id_transformation, id_step, "preserveOrder", preserveOrder);
+			rep.saveStepAttribute(id_transformation, id_step, "flushAfterMs", flushAfterMs);
+			rep.saveStepAttribute(id_transformation, id_step, "bufferMemoryMB", bufferMemoryMB);
 			
 			for (int i = 0; i < fields.length; i++) {
 				rep.saveStepAttribute(id_transformation, id_step, i, "field", fields[i]);
@@ -178,6 +258,20 @@ public abstract class BaseLoadMeta extends BaseStepMeta implements StepMetaInter
 			String bSize;
 			bSize = XMLHandler.getTagValue(stepnode, "batchSize");
 			bufferSize = Const.toInt(bSize, MIN_BUFFER_SIZE);
+			autoBufferSize = "Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "autoBufferSize"));
+			setLookupSize(Const.toInt(XMLHandler.getTagValue(stepnode, "lookupSize"), 0));
+			setInsertBatchSize(Const.toInt(XMLHandler.getTagValue(stepnode, "insertBatchSize"), 0));
+			//older steps without policy: commit every buffer
+			setCommitPolicy(XMLHandler.getTagValue(stepnode, "commitPolicy"));
+			setCommitInterval(Const.toInt(XMLHandler.getTagValue(stepnode, "commitInterval"), 1));
+			setPipelineDepth(Const.toInt(XMLHandler.getTagValue(stepnode, "pipelineDepth"), 0));
+			setAdaptiveMinBuffer(Const.toInt(XMLHandler.getTagValue(stepnode, "adaptiveMinBuffer"), 0));
+			setAdaptiveTargetMs(Const.toInt(XMLHandler.getTagValue(stepnode, "adaptiveTargetMs"), 
+					DEFAULT_ADAPTIVE_TARGET_MS));
+			//off unless set (ring adds memory and forced flushes)
+			preserveOrder = "Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "preserveOrder"));
+			setFlushAfterMs(Const.toInt(XMLHandler.getTagValue(stepnode, "flushAfterMs"), 0));
+			setBufferMemoryMB(Const.toInt(XMLHandler.getTagValue(stepnode, "bufferMemoryMB"), 0));
 			
 			Node keys = XMLHandler.getSubNode(stepnode, "fields");
 			int nrkeys = XMLHandler.countNodes(keys, "key");
@@ -208,6 +302,17 @@ public abstract class BaseLoadMeta extends BaseStepMeta implements StepMetaInter
 			schemaName = rep.getStepAttributeString(id_step, "schemaName");
 			targetTable = rep.getStepAttributeString(id_step, "hubTable");
 			bufferSize = (int) rep.getStepAttributeInteger(id_step, "batchSize");
+			autoBufferSize = rep.getStepAttributeBoolean(id_step, "autoBufferSize");
+			setLookupSize((int) rep.getStepAttributeInteger(id_step, "lookupSize"));
+			setInsertBatchSize((int) rep.getStepAttributeInteger(id_step, "insertBatchSize"));
+			setCommitPolicy(rep.getStepAttributeString(id_step, "commitPolicy"));
+			setCommitInterval((int) rep.getStepAttributeInteger(id_step, "commitInterval"));
+			setPipelineDepth((int) rep.getStepAttributeInteger(id_step, "pipelineDepth"));
+			setAdaptiveMinBuffer((int) rep.getStepAttributeInteger(id_step, "adaptiveMinBuffer"));
+			setAdaptiveTargetMs((int) rep.getStepAttributeInteger(id_step, "adaptiveTargetMs"));
+			preserveOrder = rep.getStepAttributeBoolean(id_step, 0, "preserveOrder", false);
+			setFlushAfterMs((int) rep.getStepAttributeInteger(id_step, "flushAfterMs"));
+			setBufferMemoryMB((int) rep.getStepAttributeInteger(id_step, "bufferMemoryMB"));
 			
 			int nrkeys = rep.countNrStepAttributes(id_step, "key");
 			allocateKeyArray(nrkeys);
@@ -234,6 +339,13 @@ public abstract class BaseLoadMeta extends BaseStepMeta implements StepMetaInter
 		}
 	}
 
+	/*
+	 * Rows rejected by DB during batch can be sent to error handling (see BatchBisector)
+	 */
+	public boolean supportsErrorHandling() {
+		return true;
+	}
+
 	public void check(List<CheckResultInterface> remarks, TransMeta transMeta, StepMeta stepMeta,
 			RowMetaInterface prev, String[] input, String[] output, RowMetaInterface info, VariableSpace space,
 			Repository repository, IMetaStore metaStore) {
@@ -347,6 +459,53 @@ public abstract class BaseLoadMeta extends BaseStepMeta implements StepMetaInter
 			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_WARNING, error_message, stepMeta);
 			remarks.add(cr);
 		}
+		
+		if (getLookupParamsSize() > getMaxLookupParamsSize()){
+			error_message = BaseMessages.getString(PKG, "LoadDialog.CheckResult.LookupSize", 
+					String.valueOf(getLookupParamsSize()), String.valueOf(getMaxLookupParamsSize())) + Const.CR;
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_WARNING, error_message, stepMeta);
+			remarks.add(cr);
+		}
+		
+		if (adaptiveMinBuffer > bufferSize){
+			error_message = BaseMessages.getString(PKG, "LoadDialog.CheckResult.AdaptiveMin") + Const.CR;
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_WARNING, error_message, stepMeta);
+			remarks.add(cr);
+		}
+		
+		//partitions must not share business keys
+		if (stepMeta.isPartitioned() && !isPartitionedOnKey(stepMeta)){
+			error_message = BaseMessages.getString(PKG, "LoadDialog.CheckResult.PartitionNotOnKey") + Const.CR;
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_WARNING, error_message, stepMeta);
+			remarks.add(cr);
+		}
+		
+		if (Const.indexOfString(commitPolicy, COMMIT_POLICIES) < 0){
+			error_message = BaseMessages.getString(PKG, "LoadDialog.CheckResult.CommitPolicy", commitPolicy) + Const.CR;
+			cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR, error_message, stepMeta);
+			remarks.add(cr);
+		}
+	}
+	
+	/*
+	 * Partitioned by remainder of division on a key field (a given key always in same partition) 
+	 */
+	private boolean isPartitionedOnKey(StepMeta stepMeta) {
+		if (!(stepMeta.getStepPartitioningMeta().getPartitioner() instanceof ModPartitioner)){
+			return false;
+		}
+		String field = ((ModPartitioner) stepMeta.getStepPartitioningMeta().getPartitioner()).getFieldName();
+		for (int i = 0; i < fields.length; i++){
+			if (fields[i].equals(field) && types[i].equals(getPartitionKeyType())){
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	//type of mapped fields identifying a record (partitioning field must be one of these)
+	protected String getPartitionKeyType() {
+		return getIdKeyTypeString();
 	}
 	
 	public SQLStatement getSQLStatements(TransMeta transMeta, StepMeta stepMeta, RowMetaInterface prev,
@@ -418,8 +577,89 @@ public abstract class BaseLoadMeta extends BaseStepMeta implements StepMetaInter
 	}
 
 
+	/**
+	 * @return buffer size, or its upper bound when "auto" (statements are sized for it)
+	 */
 	public int getBufferSize() {
-		return bufferSize;
+		return autoBufferSize ? MAX_SUGG_BUFFER_SIZE : bufferSize;
+	}
+
+	public boolean isAutoBufferSize() {
+		return autoBufferSize;
+	}
+
+	public void setAutoBufferSize(boolean autoBufferSize) {
+		this.autoBufferSize = autoBufferSize;
+	}
+
+	public int getLookupSize() {
+		return lookupSize;
+	}
+
+	public void setLookupSize(int lookupSize) {
+		this.lookupSize = (lookupSize < 0) ? 0 : lookupSize;
+	}
+
+	/**
+	 * @return nb of keys bound per lookup query (lookup statement is prepared for it)
+	 */
+	public int getLookupParamsSize() {
+		if (lookupSize > 0) {
+			return Math.min(lookupSize, getBufferSize());
+		}
+		//not sized for the tuner upper bound: chunk accepted by DB
+		if (autoBufferSize) {
+			return Math.min(AUTO_LOOKUP_SIZE, getMaxLookupParamsSize());
+		}
+		return getBufferSize();
+	}
+
+	/**
+	 * @return max nb of keys per lookup query accepted by the DB (Integer.MAX_VALUE when not known)
+	 */
+	public int getMaxLookupParamsSize() {
+		if (databaseMeta == null) {
+			return Integer.MAX_VALUE;
+		}
+		if (databaseMeta.getDatabaseInterface() instanceof MSSQLServerDatabaseMeta) {
+			//each key binds one param per key field, plus the lookup's own params (e.g. min date)
+			return (MSSQL_MAX_PARAMS - 2) / Math.max(1, getNbLookupKeys());
+		}
+		if (databaseMeta.getDatabaseInterface() instanceof OracleDatabaseMeta && isLookupInList()) {
+			return ORACLE_MAX_IN_LIST;
+		}
+		return Integer.MAX_VALUE;
+	}
+
+	//key fields bound per looked-up record (business keys, or FK for Satellite)
+	private int getNbLookupKeys() {
+		int nb = 0;
+		for (int i = 0; types != null && i < types.length; i++) {
+			if (getPartitionKeyType().equals(types[i])) {
+				nb++;
+			}
+		}
+		return nb;
+	}
+
+	//lookup query binds keys in a "IN ( ?, ?, ..)" list (otherwise OR'ed conditions)
+	protected boolean isLookupInList() {
+		return false;
+	}
+
+	public int getInsertBatchSize() {
+		return insertBatchSize;
+	}
+
+	public void setInsertBatchSize(int insertBatchSize) {
+		this.insertBatchSize = (insertBatchSize < 0) ? 0 : insertBatchSize;
+	}
+
+	/**
+	 * @return nb of rows per JDBC batch execution when nbRows are to be written
+	 */
+	public int getInsertBatchSize(int nbRows) {
+		return (insertBatchSize > 0 && insertBatchSize < nbRows) ? insertBatchSize : Math.max(nbRows, 1);
 	}
 
 	public void setBufferSize(int bSize) {
@@ -430,6 +670,85 @@ public abstract class BaseLoadMeta extends BaseStepMeta implements StepMetaInter
 		}
 	}
 	
+	public String getCommitPolicy() {
+		return commitPolicy;
+	}
+
+	public void setCommitPolicy(String commitPolicy) {
+		if (Const.isEmpty(commitPolicy)) {
+			this.commitPolicy = COMMIT_POLICY_BUFFER;
+		} else {
+			this.commitPolicy = commitPolicy;
+		}
+	}
+
+	public int getCommitInterval() {
+		return commitInterval;
+	}
+
+	public void setCommitInterval(int commitInterval) {
+		this.commitInterval = (commitInterval < 1) ? 1 : commitInterval;
+	}
+
+	public int getPipelineDepth() {
+		return pipelineDepth;
+	}
+
+	public void setPipelineDepth(int pipelineDepth) {
+		this.pipelineDepth = (pipelineDepth < 0) ? 0 : pipelineDepth;
+	}
+
+	public int getBufferMemoryMB() {
+		return bufferMemoryMB;
+	}
+
+	public void setBufferMemoryMB(int bufferMemoryMB) {
+		this.bufferMemoryMB = (bufferMemoryMB < 0) ? 0 : bufferMemoryMB;
+	}
+
+	/**
+	 * @return memory budget of one buffer, shared by all buffers alive when pipelined (0= none)
+	 */
+	public long getBufferMemoryBytes() {
+		int nbBuffers = (pipelineDepth > 0) ? pipelineDepth + 2 : 1;
+		return (bufferMemoryMB * 1024L * 1024L) / nbBuffers;
+	}
+
+	public int getFlushAfterMs() {
+		return flushAfterMs;
+	}
+
+	public void setFlushAfterMs(int flushAfterMs) {
+		this.flushAfterMs = (flushAfterMs < 0) ? 0 : flushAfterMs;
+	}
+
+	public boolean isPreserveOrder() {
+		return preserveOrder;
+	}
+
+	public void setPreserveOrder(boolean preserveOrder) {
+		this.preserveOrder = preserveOrder;
+	}
+
+	public boolean isAdaptiveBuffer() {
+		return adaptiveMinBuffer > 0;
+	}
+
+	public int getAdaptiveMinBuffer() {
+		return adaptiveMinBuffer;
+	}
+
+	public void setAdaptiveMinBuffer(int adaptiveMinBuffer) {
+		this.adaptiveMinBuffer = (adaptiveMinBuffer < 0) ? 0 : adaptiveMinBuffer;
+	}
+
+	public int getAdaptiveTargetMs() {
+		return adaptiveTargetMs;
+	}
+
+	public void setAdaptiveTargetMs(int adaptiveTargetMs) {
+		this.adaptiveTargetMs = (adaptiveTargetMs < 1) ? DEFAULT_ADAPTIVE_TARGET_MS : adaptiveTargetMs;
+	}
 
 
 	public String[] getFields() {
@@ -546,6 +865,70 @@ public abstract class BaseLoadMeta extends BaseStepMeta implements StepMetaInter
 		return CREATION_METHOD_TABLEMAX.equals(keyGeneration);
 	}
 
+	public boolean isMethodSequence() {
+		return CREATION_METHOD_SEQUENCE.equals(keyGeneration);
+	}
+
+	public boolean isMethodSegment() {
+		return CREATION_METHOD_SEGMENT.equals(keyGeneration);
+	}
+
+	public boolean isPrefetchSequence() {
+		return prefetchSequence;
+	}
+
+	public void setPrefetchSequence(boolean prefetchSequence) {
+		this.prefetchSequence = prefetchSequence;
+	}
+
+	public boolean isInitialLoad() {
+		return initialLoad;
+	}
+
+	public void setInitialLoad(boolean initialLoad) {
+		this.initialLoad = initialLoad;
+	}
+
+	public boolean isPartitionByKey() {
+		return partitionByKey;
+	}
+
+	public void setPartitionByKey(boolean partitionByKey) {
+		this.partitionByKey = partitionByKey;
+	}
+
+	public int getSpillAfterMB() {
+		return spillAfterMB;
+	}
+
+	public void setSpillAfterMB(int spillAfterMB) {
+		this.spillAfterMB = (spillAfterMB < 0) ? 0 : spillAfterMB;
+	}
+
+	public int getKeyCacheSize() {
+		return keyCacheSize;
+	}
+
+	public void setKeyCacheSize(int keyCacheSize) {
+		this.keyCacheSize = (keyCacheSize < 0) ? 0 : keyCacheSize;
+	}
+
+	public boolean isSortNewKeys() {
+		return sortNewKeys;
+	}
+
+	public void setSortNewKeys(boolean sortNewKeys) {
+		this.sortNewKeys = sortNewKeys;
+	}
+
+	/**
+	 * True when the step itself assigns the tech key before insert 
+	 * (bound as parameter), so no re-lookup is needed to read back new keys.
+	 */
+	public boolean isKeyAssignedByStep() {
+		return isMethodTableMax() || isMethodSegment() || (isMethodSequence() && prefetchSequence);
+	}
+
 	
 	
 	
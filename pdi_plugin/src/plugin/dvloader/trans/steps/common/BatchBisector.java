@@ -0,0 +1,143 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+
+/**
+ * Execute a JDBC batch in recovery mode: when batch fails, it is rolled back
+ * to a savepoint and re-executed in halves until the failing rows are isolated.
+ * Healthy rows are still loaded in batch, rejected ones are kept (with cause)
+ * so the step can send them to error handling.
+ * <p>
+ * Items are identified by their index (0..n-1) in the caller's list; subclass
+ * re-binds an item to the batch with addBatch(idx).
+ *
+ * @author mouellet
+ *
+ */
+public abstract class BatchBisector {
+
+	private Database db;
+	private PreparedStatement stmt;
+
+	private List<Integer> rejected = new ArrayList<Integer>();
+	private List<SQLException> rejectCauses = new ArrayList<SQLException>();
+
+	public BatchBisector(Database db, PreparedStatement stmt) {
+		this.db = db;
+		this.stmt = stmt;
+	}
+
+	/**
+	 * Re-bind item at index idx into the batch of the prepared stmt
+	 */
+	protected abstract void addBatch(int idx) throws KettleDatabaseException;
+
+	/**
+	 * Recovery mode requires savepoints
+	 */
+	public static boolean isSupported(Database db) {
+		try {
+			return db.getDatabaseMetaData().supportsSavepoints();
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Execute the batch already filled with items 0..nbItems-1
+	 *
+	 * @param nbItems
+	 * @throws KettleDatabaseException
+	 */
+	public void execute(int nbItems) throws KettleDatabaseException {
+		executeRange(0, nbItems, true);
+	}
+
+	/**
+	 * Bind and execute items 0..nbItems-1 by batches of batchSize (batch not filled yet)
+	 */
+	public void execute(int nbItems, int batchSize) throws KettleDatabaseException {
+		for (int from = 0; from < nbItems; from += batchSize) {
+			executeRange(from, Math.min(nbItems, from + batchSize), false);
+		}
+	}
+
+	private void executeRange(int from, int to, boolean alreadyBound) throws KettleDatabaseException {
+		if (from >= to) {
+			return;
+		}
+		if (!alreadyBound) {
+			for (int i = from; i < to; i++) {
+				addBatch(i);
+			}
+		}
+		Savepoint sp = setSavepoint();
+		try {
+			stmt.executeBatch();
+			stmt.clearBatch();
+			releaseSavepoint(sp);
+		} catch (SQLException ex) {
+			try {
+				stmt.clearBatch();
+			} catch (SQLException e) {
+				throw new KettleDatabaseException(e);
+			}
+			rollback(sp);
+			if (to - from == 1) {
+				rejected.add(from);
+				rejectCauses.add(ex.getNextException() != null ? ex.getNextException() : ex);
+			} else {
+				int mid = (from + to) >>> 1;
+				executeRange(from, mid, false);
+				executeRange(mid, to, false);
+			}
+		}
+	}
+
+	protected Savepoint setSavepoint() throws KettleDatabaseException {
+		return db.setSavepoint();
+	}
+
+	protected void releaseSavepoint(Savepoint sp) throws KettleDatabaseException {
+		db.releaseSavepoint(sp);
+	}
+
+	protected void rollback(Savepoint sp) throws KettleDatabaseException {
+		db.rollback(sp);
+	}
+
+	/**
+	 * @return index of rejected items (ascending order)
+	 */
+	public List<Integer> getRejected() {
+		return rejected;
+	}
+
+	public SQLException getRejectCause(int i) {
+		return rejectCauses.get(i);
+	}
+
+}
@@ -0,0 +1,173 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+
+public class BatchBisectorTest {
+
+	/*
+	 * Fake statement: a batch containing a bad item fails as a whole (nothing written)
+	 */
+	private static class FakeBatch implements InvocationHandler {
+		private final Set<Integer> bad;
+		private final List<Integer> batch = new ArrayList<Integer>();
+		// nb of times each item was written
+		private final int[] written;
+		private int nbExecuted;
+		private int nbFailed;
+
+		FakeBatch(int nbItems, Integer... bad) {
+			this.bad = new HashSet<Integer>(Arrays.asList(bad));
+			this.written = new int[nbItems];
+		}
+
+		public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+			if (m.getName().equals("executeBatch")) {
+				nbExecuted++;
+				for (Integer idx : batch) {
+					if (bad.contains(idx)) {
+						nbFailed++;
+						batch.clear();
+						SQLException cause = new SQLException("duplicate " + idx);
+						BatchUpdateException ex = new BatchUpdateException("batch failed", new int[0]);
+						ex.setNextException(cause);
+						throw ex;
+					}
+				}
+				int[] res = new int[batch.size()];
+				for (Integer idx : batch) {
+					written[idx]++;
+				}
+				batch.clear();
+				return res;
+			} else if (m.getName().equals("clearBatch")) {
+				batch.clear();
+				return null;
+			}
+			throw new UnsupportedOperationException(m.getName());
+		}
+
+		PreparedStatement stmt() {
+			return (PreparedStatement) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, this);
+		}
+	}
+
+	private static class StubBisector extends BatchBisector {
+		private final FakeBatch fake;
+		private int nbRollback;
+
+		StubBisector(FakeBatch fake, PreparedStatement stmt) {
+			super(null, stmt);
+			this.fake = fake;
+		}
+
+		protected void addBatch(int idx) throws KettleDatabaseException {
+			fake.batch.add(idx);
+		}
+
+		protected Savepoint setSavepoint() {
+			return null;
+		}
+
+		protected void releaseSavepoint(Savepoint sp) {
+		}
+
+		protected void rollback(Savepoint sp) {
+			nbRollback++;
+		}
+	}
+
+	private void assertWrittenOnce(FakeBatch fake, Integer... rejected) {
+		Set<Integer> rej = new HashSet<Integer>(Arrays.asList(rejected));
+		for (int i = 0; i < fake.written.length; i++) {
+			assertEquals("item " + i, rej.contains(i) ? 0 : 1, fake.written[i]);
+		}
+	}
+
+	@Test
+	public void testIsolateRejected() throws KettleDatabaseException {
+		FakeBatch fake = new FakeBatch(16, 3, 12);
+		StubBisector b = new StubBisector(fake, fake.stmt());
+		b.execute(16, 16);
+
+		assertEquals(Arrays.asList(3, 12), b.getRejected());
+		assertEquals("duplicate 3", b.getRejectCause(0).getMessage());
+		assertEquals("duplicate 12", b.getRejectCause(1).getMessage());
+		assertWrittenOnce(fake, 3, 12);
+		// every failed batch rolled back
+		assertEquals(fake.nbFailed, b.nbRollback);
+		// 0-16, 0-8, 0-4, 2-4, 3, 8-16, 12-16, 12-14, 12
+		assertEquals(9, b.nbRollback);
+	}
+
+	@Test
+	public void testAlreadyBound() throws KettleDatabaseException {
+		FakeBatch fake = new FakeBatch(5, 0);
+		StubBisector b = new StubBisector(fake, fake.stmt());
+		for (int i = 0; i < 5; i++) {
+			b.addBatch(i);
+		}
+		b.execute(5);
+
+		assertEquals(Arrays.asList(0), b.getRejected());
+		assertWrittenOnce(fake, 0);
+	}
+
+	@Test
+	public void testBatchSizeAndNoReject() throws KettleDatabaseException {
+		FakeBatch fake = new FakeBatch(10);
+		StubBisector b = new StubBisector(fake, fake.stmt());
+		b.execute(10, 4);
+
+		assertTrue(b.getRejected().isEmpty());
+		assertWrittenOnce(fake);
+		// 4 + 4 + 2
+		assertEquals(3, fake.nbExecuted);
+		assertEquals(0, b.nbRollback);
+	}
+
+	@Test
+	public void testAllRejected() throws KettleDatabaseException {
+		FakeBatch fake = new FakeBatch(3, 0, 1, 2);
+		StubBisector b = new StubBisector(fake, fake.stmt());
+		b.execute(3, 2);
+
+		assertEquals(Arrays.asList(0, 1, 2), b.getRejected());
+		assertWrittenOnce(fake, 0, 1, 2);
+	}
+
+}
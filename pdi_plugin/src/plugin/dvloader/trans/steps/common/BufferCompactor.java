@@ -0,0 +1,66 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import java.util.List;
+
+import org.pentaho.di.core.exception.KettleStepException;
+
+/**
+ * Remove resolved rows from a buffer in one pass: rows kept are moved down in place 
+ * (same order) and the tail is truncated once.  Linear, whereas Iterator.remove() on 
+ * an ArrayList shifts the array at each removal (quadratic on large buffers).
+ *
+ * @author mouellet
+ *
+ */
+public class BufferCompactor {
+
+	public interface Resolver<T> {
+		/**
+		 * @return true when row is resolved (e.g. sent downstream) and must leave buffer
+		 */
+		boolean resolve(T row) throws KettleStepException;
+	}
+
+	private BufferCompactor() {
+	}
+
+	/**
+	 * Resolve rows in buffer order, keeping unresolved ones
+	 * 
+	 * @return nb of rows removed
+	 */
+	public static <T> int compact(List<T> buffer, Resolver<T> resolver) throws KettleStepException {
+		int size = buffer.size();
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			T row = buffer.get(i);
+			if (!resolver.resolve(row)) {
+				if (kept != i) {
+					buffer.set(kept, row);
+				}
+				kept++;
+			}
+		}
+		if (kept < size) {
+			buffer.subList(kept, size).clear();
+		}
+		return size - kept;
+	}
+
+}
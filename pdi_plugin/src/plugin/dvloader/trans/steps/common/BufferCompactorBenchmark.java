@@ -0,0 +1,96 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import org.pentaho.di.core.exception.KettleStepException;
+
+/**
+ * Compare BufferCompactor with Iterator.remove() used previously.  Run manually (main), 
+ * not part of unit tests: each size is warmed-up before the median of measured runs is reported.
+ * Not packaged in the plugin jar (see build.xml).
+ *
+ * @author mouellet
+ *
+ */
+public class BufferCompactorBenchmark {
+	private static final int WARMUP = 200;
+	private static final int RUNS = 51;
+
+	// every other row resolved (e.g. half of keys found by lookup)
+	private static final BufferCompactor.Resolver<Integer> evenResolved = new BufferCompactor.Resolver<Integer>() {
+		public boolean resolve(Integer row) {
+			return row % 2 == 0;
+		}
+	};
+
+	private static List<Integer> buffer(int size) {
+		List<Integer> buffer = new ArrayList<Integer>(size);
+		for (int i = 0; i < size; i++) {
+			buffer.add(i);
+		}
+		return buffer;
+	}
+
+	private static long iteratorRemove(int size) throws KettleStepException {
+		List<Integer> b = buffer(size);
+		long start = System.nanoTime();
+		Iterator<Integer> iter = b.iterator();
+		while (iter.hasNext()) {
+			if (evenResolved.resolve(iter.next())) {
+				iter.remove();
+			}
+		}
+		return System.nanoTime() - start;
+	}
+
+	private static long compact(int size) throws KettleStepException {
+		List<Integer> b = buffer(size);
+		long start = System.nanoTime();
+		BufferCompactor.compact(b, evenResolved);
+		return System.nanoTime() - start;
+	}
+
+	private static long median(long[] nanos) {
+		Arrays.sort(nanos);
+		return nanos[nanos.length / 2];
+	}
+
+	public static void main(String[] args) throws KettleStepException {
+		int[] sizes = new int[] { 1000, 5000, 20000, 50000 };
+		for (int size : sizes) {
+			for (int i = 0; i < WARMUP; i++) {
+				iteratorRemove(size);
+				compact(size);
+			}
+			long[] iterNanos = new long[RUNS];
+			long[] compactNanos = new long[RUNS];
+			for (int i = 0; i < RUNS; i++) {
+				iterNanos[i] = iteratorRemove(size);
+				compactNanos[i] = compact(size);
+			}
+			System.out.println("Buffer size " + size + ": Iterator.remove() " + (median(iterNanos) / 1000)
+					+ " us, compact " + (median(compactNanos) / 1000) + " us (median of " + RUNS + ")");
+		}
+	}
+
+}
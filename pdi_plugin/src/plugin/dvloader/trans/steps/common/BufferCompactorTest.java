@@ -0,0 +1,57 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleStepException;
+
+public class BufferCompactorTest {
+
+	// every other row resolved (e.g. half of keys found by lookup)
+	private final BufferCompactor.Resolver<Integer> evenResolved = new BufferCompactor.Resolver<Integer>() {
+		public boolean resolve(Integer row) {
+			return row % 2 == 0;
+		}
+	};
+
+	private List<Integer> buffer(int size) {
+		List<Integer> buffer = new ArrayList<Integer>(size);
+		for (int i = 0; i < size; i++) {
+			buffer.add(i);
+		}
+		return buffer;
+	}
+
+	@Test
+	public void testOrderKept() throws KettleStepException {
+		List<Integer> buffer = buffer(11);
+		assertEquals(6, BufferCompactor.compact(buffer, evenResolved));
+		assertEquals(5, buffer.size());
+		for (int i = 0; i < buffer.size(); i++) {
+			assertEquals(2 * i + 1, buffer.get(i).intValue());
+		}
+		assertEquals(0, BufferCompactor.compact(buffer, evenResolved));
+		assertEquals(0, BufferCompactor.compact(new ArrayList<Integer>(), evenResolved));
+	}
+
+}
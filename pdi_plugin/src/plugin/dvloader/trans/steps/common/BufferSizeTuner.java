@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+/**
+ * "Auto" buffer size: hill-climbing on throughput (rows/s) measured while step runs.
+ * <p>
+ * Each size is measured over a few full buffers, then size moves by a factor in the 
+ * current direction as long as throughput improves.  When it gets worse, direction is 
+ * reversed with a smaller factor, until the factor is too small to matter (settled).  
+ * A settled size is probed again when throughput drops well below the best seen 
+ * (e.g. DB got busy).
+ * <p>
+ * Called by the thread doing DB work and read by the step thread filling buffers, 
+ * hence synchronized.
+ *
+ * @author mouellet
+ *
+ */
+public class BufferSizeTuner {
+	static final int CYCLES_PER_SIZE = 3;
+	static final double START_FACTOR = 2.0;
+	static final double MIN_FACTOR = 1.1;
+	// settled size is probed again when throughput drops below this ratio of best
+	static final double DROP_RATIO = 0.7;
+
+	private final int minSize;
+	private final int maxSize;
+
+	private int size;
+	private double factor = START_FACTOR;
+	private boolean up = true;
+	private boolean settled;
+
+	// measure of current size
+	private int cycles;
+	private long rows;
+	private long millis;
+	// throughput of previous size (-1 when none)
+	private double previousRate = -1;
+	private double bestRate;
+
+	// totals for reporting
+	private long totalRows;
+	private long totalMillis;
+	private long totalCycles;
+
+	public BufferSizeTuner(int minSize, int maxSize, int startSize) {
+		this.minSize = Math.max(1, minSize);
+		this.maxSize = Math.max(this.minSize, maxSize);
+		this.size = bound(startSize);
+	}
+
+	/**
+	 * @param nbRows rows processed by cycle (partial buffers are ignored)
+	 * @param elapsedMs latency of cycle (lookup + insert)
+	 * @return true when buffer size changed
+	 */
+	public synchronized boolean onCycle(int nbRows, long elapsedMs) {
+		totalRows += nbRows;
+		totalMillis += elapsedMs;
+		totalCycles++;
+		if (nbRows < size) {
+			return false;
+		}
+		cycles++;
+		rows += nbRows;
+		millis += Math.max(1, elapsedMs);
+		if (cycles < CYCLES_PER_SIZE) {
+			return false;
+		}
+		double rate = rows * 1000.0 / millis;
+		cycles = 0;
+		rows = 0;
+		millis = 0;
+		bestRate = Math.max(bestRate, rate);
+
+		int prevSize = size;
+		if (settled) {
+			if (rate < bestRate * DROP_RATIO) {
+				// conditions changed: probe again from here
+				settled = false;
+				factor = Math.sqrt(START_FACTOR);
+				bestRate = rate;
+				previousRate = -1;
+				move();
+			}
+		} else {
+			if (previousRate >= 0 && rate < previousRate) {
+				// went too far: reverse with smaller step
+				up = !up;
+				factor = Math.sqrt(factor);
+				if (factor < MIN_FACTOR) {
+					settled = true;
+				}
+			}
+			previousRate = rate;
+			if (!settled) {
+				move();
+			}
+		}
+		return size != prevSize;
+	}
+
+	private void move() {
+		int next = bound((int) Math.round(up ? size * factor : size / factor));
+		if (next == size) {
+			// stuck on a bound: try other way
+			up = !up;
+			next = bound((int) Math.round(up ? size * factor : size / factor));
+		}
+		size = next;
+	}
+
+	private int bound(int s) {
+		return Math.min(maxSize, Math.max(minSize, s));
+	}
+
+	public synchronized int getBufferSize() {
+		return size;
+	}
+
+	public synchronized boolean isSettled() {
+		return settled;
+	}
+
+	public synchronized String toString() {
+		long rate = (totalMillis == 0) ? 0 : totalRows * 1000 / totalMillis;
+		long latency = (totalCycles == 0) ? 0 : totalMillis / totalCycles;
+		return "buffer size= " + size + (settled ? " (settled)" : " (probing)") + ", " + rate 
+				+ " rows/s, avg latency= " + latency + " ms per buffer";
+	}
+
+}
@@ -0,0 +1,72 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class BufferSizeTunerTest {
+
+	/*
+	 * Simulated DB: fixed cost per round-trip, per-row cost growing past 2000 rows 
+	 * (throughput is best around 2000)  
+	 */
+	private long latency(int size) {
+		double perRow = (size <= 2000) ? 0.1 : 0.1 + (size - 2000) * 0.0001;
+		return (long) (50 + size * perRow);
+	}
+
+	private void run(BufferSizeTuner t, int nbCycles) {
+		for (int i = 0; i < nbCycles; i++) {
+			int size = t.getBufferSize();
+			t.onCycle(size, latency(size));
+		}
+	}
+
+	@Test
+	public void testClimbsToBestThroughput() {
+		BufferSizeTuner t = new BufferSizeTuner(50, 5000, 500);
+		run(t, 200);
+		assertTrue(t.isSettled());
+		assertTrue("settled at " + t.getBufferSize(), t.getBufferSize() >= 1400 && t.getBufferSize() <= 2800);
+	}
+
+	@Test
+	public void testPartialBufferIgnored() {
+		BufferSizeTuner t = new BufferSizeTuner(50, 5000, 500);
+		for (int i = 0; i < 10; i++) {
+			assertFalse(t.onCycle(10, 5));
+		}
+		assertEquals(500, t.getBufferSize());
+	}
+
+	@Test
+	public void testBounds() {
+		BufferSizeTuner t = new BufferSizeTuner(50, 1000, 5000);
+		assertEquals(1000, t.getBufferSize());
+		// throughput always better with larger buffer: stays at max
+		for (int i = 0; i < 100; i++) {
+			t.onCycle(t.getBufferSize(), 10);
+		}
+		assertTrue(t.getBufferSize() <= 1000 && t.getBufferSize() >= 50);
+	}
+
+}
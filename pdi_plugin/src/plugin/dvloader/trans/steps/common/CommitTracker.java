@@ -0,0 +1,105 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+/**
+ * Keeps track of writes done since last commit and decides when
+ * commit is due according to the commit policy defined in UI.
+ * <p>
+ * Default policy (every 1 buffer) corresponds to committing
+ * at the end of each buffer cycle.
+ *
+ * @author mouellet
+ *
+ */
+public class CommitTracker {
+
+	private String policy;
+	private int interval;
+
+	// writes since last commit
+	private int nbRows;
+	private int nbBuffers;
+	// time of first write since last commit
+	private long firstWriteMillis;
+
+	public CommitTracker(String policy, int interval) {
+		this.policy = (policy == null) ? BaseLoadMeta.COMMIT_POLICY_BUFFER : policy;
+		this.interval = (interval < 1) ? 1 : interval;
+	}
+
+	/**
+	 * Register the rows written (insert/update) by one buffer cycle
+	 * @param rowsWritten
+	 */
+	public void addBuffer(int rowsWritten) {
+		addBuffer(rowsWritten, System.currentTimeMillis());
+	}
+
+	void addBuffer(int rowsWritten, long nowMillis) {
+		if (rowsWritten <= 0) {
+			return;
+		}
+		if (nbRows == 0) {
+			firstWriteMillis = nowMillis;
+		}
+		nbRows += rowsWritten;
+		nbBuffers++;
+	}
+
+	public boolean hasUncommitted() {
+		return nbRows > 0;
+	}
+
+	/**
+	 * @param endOfInput no more rows expected, so anything uncommitted must be committed
+	 * @return true when uncommitted writes exist and policy requires commit
+	 */
+	public boolean isCommitDue(boolean endOfInput) {
+		return isCommitDue(endOfInput, System.currentTimeMillis());
+	}
+
+	boolean isCommitDue(boolean endOfInput, long nowMillis) {
+		if (nbRows == 0) {
+			return false;
+		}
+		if (endOfInput) {
+			return true;
+		}
+		if (BaseLoadMeta.COMMIT_POLICY_ROWS.equals(policy)) {
+			return nbRows >= interval;
+		} else if (BaseLoadMeta.COMMIT_POLICY_SECONDS.equals(policy)) {
+			return (nowMillis - firstWriteMillis) >= interval * 1000L;
+		} else if (BaseLoadMeta.COMMIT_POLICY_END.equals(policy)) {
+			return false;
+		}
+		return nbBuffers >= interval;
+	}
+
+	/**
+	 * To call once commit is done
+	 */
+	public void committed() {
+		nbRows = 0;
+		nbBuffers = 0;
+	}
+
+	public int getUncommittedRows() {
+		return nbRows;
+	}
+
+}
@@ -0,0 +1,87 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CommitTrackerTest {
+
+	@Test
+	public void testDefaultEveryBuffer() {
+		CommitTracker t = new CommitTracker(null, 0);
+		assertFalse(t.isCommitDue(false));
+		//buffer without write does not need commit
+		t.addBuffer(0);
+		assertFalse(t.hasUncommitted());
+		assertFalse(t.isCommitDue(true));
+
+		t.addBuffer(10);
+		assertTrue(t.isCommitDue(false));
+		t.committed();
+		assertFalse(t.hasUncommitted());
+		assertFalse(t.isCommitDue(false));
+	}
+
+	@Test
+	public void testEveryNBuffers() {
+		CommitTracker t = new CommitTracker(BaseLoadMeta.COMMIT_POLICY_BUFFER, 3);
+		t.addBuffer(5);
+		t.addBuffer(5);
+		assertFalse(t.isCommitDue(false));
+		t.addBuffer(5);
+		assertTrue(t.isCommitDue(false));
+		assertEquals(15, t.getUncommittedRows());
+	}
+
+	@Test
+	public void testEveryNRows() {
+		CommitTracker t = new CommitTracker(BaseLoadMeta.COMMIT_POLICY_ROWS, 100);
+		t.addBuffer(60);
+		assertFalse(t.isCommitDue(false));
+		t.addBuffer(60);
+		assertTrue(t.isCommitDue(false));
+	}
+
+	@Test
+	public void testEveryNSeconds() {
+		CommitTracker t = new CommitTracker(BaseLoadMeta.COMMIT_POLICY_SECONDS, 2);
+		t.addBuffer(10, 1000L);
+		assertFalse(t.isCommitDue(false, 2999L));
+		//timer starts at first write, not at last one
+		t.addBuffer(10, 2999L);
+		assertTrue(t.isCommitDue(false, 3000L));
+		t.committed();
+		t.addBuffer(10, 5000L);
+		assertFalse(t.isCommitDue(false, 6000L));
+	}
+
+	@Test
+	public void testOnlyAtEnd() {
+		CommitTracker t = new CommitTracker(BaseLoadMeta.COMMIT_POLICY_END, 1);
+		for (int i = 0; i < 1000; i++) {
+			t.addBuffer(1000);
+		}
+		assertFalse(t.isCommitDue(false));
+		assertTrue(t.isCommitDue(true));
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import java.lang.reflect.Method;
+
+/**
+ * Threads used for blocking DB calls (lookup, batch execute, commit) done off the step thread.
+ * <p>
+ * On JVM supporting virtual threads (Java 21+), these are virtual: they cost nothing while 
+ * blocked on JDBC.  Otherwise (plugin still compiled for 1.6) platform daemon threads
+ * are used.
+ * Detection is done by reflection once.
+ *
+ * @author mouellet
+ *
+ */
+public class IoExecutors {
+
+	private static final Method ofVirtual;
+	private static final Method builderName;
+	private static final Method builderUnstarted;
+
+	static {
+		Method[] m = new Method[3];
+		try {
+			// through public interface (implementation classes are not accessible)
+			Class<?> builder = Class.forName("java.lang.Thread$Builder");
+			m[0] = Thread.class.getMethod("ofVirtual");
+			m[1] = builder.getMethod("name", String.class);
+			m[2] = builder.getMethod("unstarted", Runnable.class);
+		} catch (Exception e) {
+			m = new Method[3];
+		}
+		ofVirtual = m[0];
+		builderName = m[1];
+		builderUnstarted = m[2];
+	}
+
+	private IoExecutors() {
+	}
+
+	public static boolean isVirtual() {
+		return ofVirtual != null;
+	}
+
+	/**
+	 * New unstarted thread (virtual when supported, daemon platform thread otherwise)
+	 */
+	public static Thread newThread(String name, Runnable task) {
+		if (isVirtual()) {
+			try {
+				Object builder = builderName.invoke(ofVirtual.invoke(null), name);
+				return (Thread) builderUnstarted.invoke(builder, task);
+			} catch (Exception e) {
+				// fall back to platform thread
+			}
+		}
+		Thread t = new Thread(task, name);
+		t.setDaemon(true);
+		return t;
+	}
+
+}
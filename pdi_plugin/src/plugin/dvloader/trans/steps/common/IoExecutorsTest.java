@@ -0,0 +1,44 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class IoExecutorsTest {
+
+	@Test
+	public void testThread() throws InterruptedException {
+		final AtomicInteger ran = new AtomicInteger();
+		Thread t = IoExecutors.newThread("io-test", new Runnable() {
+			public void run() {
+				ran.incrementAndGet();
+			}
+		});
+		assertEquals("io-test", t.getName());
+		assertTrue(t.isDaemon());
+		t.start();
+		t.join();
+		assertEquals(1, ran.get());
+	}
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache (least recently used evicted) of business keys with their tech key, 
+ * so rows with a known key can be sent downstream without waiting for a full buffer.
+ * <p>
+ * Keys resolved by a buffer are staged and only published once committed: a cache 
+ * hit never gives a key invisible to other connections.
+ * <p>
+ * Used by step thread (get) and thread processing buffers (stage/publish), hence synchronized.
+ *
+ * @author mouellet
+ *
+ */
+public class KeyCache {
+
+	private final int maxEntries;
+	private final Map<CompositeKeys, Long> cache;
+	private final Map<CompositeKeys, Long> staged = new HashMap<CompositeKeys, Long>();
+	private long hits;
+	private long misses;
+
+	public KeyCache(final int maxEntries) {
+		this.maxEntries = Math.max(1, maxEntries);
+		this.cache = new LinkedHashMap<CompositeKeys, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			protected boolean removeEldestEntry(Map.Entry<CompositeKeys, Long> eldest) {
+				return size() > KeyCache.this.maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * @return tech key of committed business key, null when not cached
+	 */
+	public synchronized Long get(CompositeKeys key) {
+		Long v = cache.get(key);
+		if (v == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return v;
+	}
+
+	/**
+	 * Key resolved but maybe not yet committed (ignored once enough keys are staged)
+	 */
+	public synchronized void stage(CompositeKeys key, Long techKey) {
+		if (staged.size() < maxEntries) {
+			staged.put(key, techKey);
+		}
+	}
+
+	/**
+	 * Staged keys are committed
+	 */
+	public synchronized void publishStaged() {
+		cache.putAll(staged);
+		staged.clear();
+	}
+
+	public synchronized int size() {
+		return cache.size();
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class KeyCacheTest {
+
+	private CompositeKeys key(String bk) {
+		return new CompositeKeys(new Object[] {bk});
+	}
+
+	@Test
+	public void testVisibleOnceCommitted() {
+		KeyCache cache = new KeyCache(10);
+		cache.stage(key("a"), 1L);
+		assertNull(cache.get(key("a")));
+		cache.publishStaged();
+		assertEquals(Long.valueOf(1), cache.get(key("a")));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() {
+		KeyCache cache = new KeyCache(2);
+		cache.stage(key("a"), 1L);
+		cache.stage(key("b"), 2L);
+		cache.publishStaged();
+		// a is now more recent than b
+		cache.get(key("a"));
+		cache.stage(key("c"), 3L);
+		cache.publishStaged();
+		assertEquals(2, cache.size());
+		assertNull(cache.get(key("b")));
+		assertEquals(Long.valueOf(1), cache.get(key("a")));
+		assertEquals(Long.valueOf(3), cache.get(key("c")));
+	}
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-JVM reservation of business keys missed by lookup, shared by all steps
+ * loading the same table (e.g. copies of a step that cannot be partitioned).
+ * <p>
+ * First step to reserve a key inserts it, others must wait until the key is released
+ * (i.e. committed by its owner) and then read it.  Keys are spread over lock stripes
+ * by their hash, so waiting only blocks on the stripe of the key (no global lock).
+ * <p>
+ * To avoid dead-lock, a step must release all its own reservations (commit) before
+ * waiting on keys reserved by others, and the owner must commit as soon as another 
+ * step waits on its keys (see isAwaited), whatever its commit policy: the waiting 
+ * step no longer reads its input, which may in turn starve the owner of input rows.
+ *
+ * @author mouellet
+ *
+ */
+public class KeyReservations {
+	public static final int NB_STRIPES = 64;
+
+	private static final Map<List<Object>, KeyReservations> tables = new HashMap<List<Object>, KeyReservations>();
+
+	private final Map<CompositeKeys, Object>[] stripes;
+	// nb of steps waiting on keys of each owner
+	private final Map<Object, Integer> waiters = new HashMap<Object, Integer>();
+	private int nbUsers;
+
+	@SuppressWarnings("unchecked")
+	KeyReservations(int nbStripes) {
+		stripes = new Map[nbStripes];
+		for (int i = 0; i < nbStripes; i++) {
+			stripes[i] = new HashMap<CompositeKeys, Object>();
+		}
+	}
+
+	/**
+	 * Get the reservations shared by all steps loading this table
+	 *
+	 * @param connection name of DB connection
+	 * @param table qualified table name
+	 */
+	public static synchronized KeyReservations join(String connection, String table) {
+		List<Object> id = Arrays.<Object> asList(connection, table);
+		KeyReservations r = tables.get(id);
+		if (r == null) {
+			r = new KeyReservations(NB_STRIPES);
+			tables.put(id, r);
+		}
+		r.nbUsers++;
+		return r;
+	}
+
+	/**
+	 * Release the reservation table (removed when last step leaves)
+	 */
+	public static synchronized void leave(String connection, String table) {
+		List<Object> id = Arrays.<Object> asList(connection, table);
+		KeyReservations r = tables.get(id);
+		if (r != null && --r.nbUsers <= 0) {
+			tables.remove(id);
+		}
+	}
+
+	private Map<CompositeKeys, Object> stripeOf(CompositeKeys key) {
+		return stripes[(key.hashCode() & Integer.MAX_VALUE) % stripes.length];
+	}
+
+	/**
+	 * @return true when key is reserved by owner (now or before), false when reserved by another
+	 */
+	public boolean reserve(CompositeKeys key, Object owner) {
+		Map<CompositeKeys, Object> stripe = stripeOf(key);
+		synchronized (stripe) {
+			Object current = stripe.get(key);
+			if (current == null) {
+				stripe.put(key, owner);
+				return true;
+			}
+			return current == owner;
+		}
+	}
+
+	/**
+	 * Release keys (once committed or rolled back) and wake up steps waiting on them
+	 */
+	public void release(Collection<CompositeKeys> keys) {
+		for (CompositeKeys key : keys) {
+			Map<CompositeKeys, Object> stripe = stripeOf(key);
+			synchronized (stripe) {
+				stripe.remove(key);
+				stripe.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Wait until key is released
+	 *
+	 * @return false when still reserved after timeout
+	 */
+	public boolean awaitRelease(CompositeKeys key, long timeoutMs) throws InterruptedException {
+		Map<CompositeKeys, Object> stripe = stripeOf(key);
+		long end = System.currentTimeMillis() + timeoutMs;
+		synchronized (stripe) {
+			Object owner = stripe.get(key);
+			if (owner == null) {
+				return true;
+			}
+			addWaiter(owner, 1);
+			try {
+				while (stripe.containsKey(key)) {
+					long left = end - System.currentTimeMillis();
+					if (left <= 0) {
+						return false;
+					}
+					stripe.wait(left);
+				}
+				return true;
+			} finally {
+				addWaiter(owner, -1);
+			}
+		}
+	}
+
+	private void addWaiter(Object owner, int delta) {
+		synchronized (waiters) {
+			Integer n = waiters.get(owner);
+			int nb = ((n == null) ? 0 : n) + delta;
+			if (nb <= 0) {
+				waiters.remove(owner);
+			} else {
+				waiters.put(owner, nb);
+			}
+		}
+	}
+
+	/**
+	 * @return true when another step waits on a key reserved by owner (owner must commit)
+	 */
+	public boolean isAwaited(Object owner) {
+		synchronized (waiters) {
+			return waiters.containsKey(owner);
+		}
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class KeyReservationsTest {
+
+	@Test
+	public void testFirstReserves() {
+		KeyReservations r = new KeyReservations(4);
+		Object copy1 = new Object();
+		Object copy2 = new Object();
+		CompositeKeys k = new CompositeKeys(new Object[] {"bk1"});
+		assertTrue(r.reserve(k, copy1));
+		assertTrue(r.reserve(new CompositeKeys(new Object[] {"bk1"}), copy1));
+		assertFalse(r.reserve(k, copy2));
+		// other key, even on same stripe
+		assertTrue(r.reserve(new CompositeKeys(new Object[] {"bk2"}), copy2));
+
+		r.release(Collections.singletonList(k));
+		assertTrue(r.reserve(k, copy2));
+	}
+
+	@Test
+	public void testWaitOnRelease() throws InterruptedException {
+		final KeyReservations r = new KeyReservations(4);
+		final CompositeKeys k = new CompositeKeys(new Object[] {"bk1", 10L});
+		r.reserve(k, this);
+		assertFalse(r.awaitRelease(k, 10));
+
+		Thread owner = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					return;
+				}
+				r.release(Collections.singletonList(k));
+			}
+		};
+		owner.start();
+		assertTrue(r.awaitRelease(k, 5000));
+		owner.join();
+	}
+
+	/*
+	 * Two copies contending under commit policy "end": owner must commit once the other waits
+	 */
+	@Test
+	public void testOwnerCommitsWhenAwaited() throws InterruptedException {
+		final KeyReservations r = new KeyReservations(4);
+		final Object owner = new Object();
+		final CompositeKeys k = new CompositeKeys(new Object[] {"bk1"});
+		final CommitTracker tracker = new CommitTracker(BaseLoadMeta.COMMIT_POLICY_END, 1);
+		assertTrue(r.reserve(k, owner));
+		tracker.addBuffer(1);
+		assertFalse(r.isAwaited(owner));
+
+		// owner copy: input stalled, checks periodically whether it must commit
+		Thread ownerCopy = new Thread() {
+			public void run() {
+				try {
+					while (!tracker.isCommitDue(false) && !r.isAwaited(owner)) {
+						Thread.sleep(5);
+					}
+				} catch (InterruptedException e) {
+					return;
+				}
+				tracker.committed();
+				r.release(Collections.singletonList(k));
+			}
+		};
+		ownerCopy.start();
+
+		// other copy missed the key reserved by owner
+		Object other = new Object();
+		assertFalse(r.reserve(k, other));
+		boolean released = false;
+		for (int i = 0; i < 100 && !released; i++) {
+			released = r.awaitRelease(k, 100);
+		}
+		ownerCopy.join(5000);
+		assertTrue(released);
+		assertFalse(r.isAwaited(owner));
+		assertTrue(r.reserve(k, other));
+	}
+
+	@Test
+	public void testSharedByTable() {
+		KeyReservations r1 = KeyReservations.join("con", "hub_a");
+		assertTrue(r1 == KeyReservations.join("con", "hub_a"));
+		assertFalse(r1 == KeyReservations.join("con", "hub_b"));
+		KeyReservations.leave("con", "hub_a");
+		KeyReservations.leave("con", "hub_a");
+		KeyReservations.leave("con", "hub_b");
+		assertFalse(r1 == KeyReservations.join("con", "hub_a"));
+		KeyReservations.leave("con", "hub_a");
+	}
+
+}
@@ -20,8 +20,12 @@ import java.sql.BatchUpdateException;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -29,8 +33,12 @@ import java.util.Map;
 
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.database.OracleDatabaseMeta;
+import org.pentaho.di.core.database.PostgreSQLDatabaseMeta;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
@@ -71,6 +79,7 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 	private int[] nonekeysRowIdx;
 	
 	//position index of fields stored in BINARY in row stream (= null if none)
+	//key fields stored as binary string (other fields are left lazy)
 	private int[] fieldsInBinary = null;
 
 	private RowMetaInterface lookupRowMeta;
@@ -78,16 +87,58 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 
 	// Buffer storing original input rows appended with new surrKey
 	private List<Object[]> bufferRows;
+	//memory budget of bufferRows (null when sized on rows only)
+	private RowSizeEstimator sizeEstimator;
+	private long maxBufferBytes;
+	private long bufferBytes;
 
 	// hold the lookup record (key(s) --> PKey)
 	private Map<CompositeKeys, Long> lookupMapping;
 
+	// decide when to commit (commit policy)
+	private CommitTracker commitTracker;
+	// output rows held until their new key is committed
+	private SpillableRowList pendingRows;
+	//max rows held in memory before a commit is forced (0= no cap, rows spilled to file)
+	private int maxHeldRows;
+	// isolate rows rejected by batch (only when error handling is defined)
+	private boolean batchRecovery;
+
+	// max number of keys kept in memory during initial load  
+	public static int INITIAL_LOAD_MAX_KEYS = 1000000;
+	// heap used per buffered row by lookup map (entry, CompositeKeys and Long key)
+	public static int LOOKUP_ENTRY_BYTES = 96;
+	// max rows held in memory until commit (when not spilled)
+	public static int MAX_HELD_ROWS = 500000;
+	// initial load into empty target: no DB lookup 
+	private boolean initialLoad;
+	// all keys loaded so far by this step (only during initial load)
+	private Map<CompositeKeys, Long> loadedKeys;
+
 	public boolean finishedAllRows = false;
+	// own input exhausted (when routing rows between copies)
+	public boolean finishedReading = false;
+	// route rows to copy owning their keys (null when not partitioning by key)
+	private PartitionExchange exchange;
+	// missed keys reserved in-JVM for copies not partitioned (null when not needed)
+	private KeyReservations reservations;
+	// keys reserved by this step, released at commit
+	private List<CompositeKeys> reservedKeys;
 
 	private LogChannelInterface log;
 
 	private PreparedStatement prepStmtLookup;
 	private PreparedStatement prepStmtInsert;
+	// fetch a block of sequence values (only when prefetching sequence)
+	private PreparedStatement prepStmtSequence;
+	// true when prepStmtSequence returns a whole block in one query
+	private boolean sequenceBlockQuery;
+	// in-process key generation (only with segment method)
+	private SegmentKeyGenerator segmentKeyGenerator;
+	// disjoint key range of partition (only with table max when partitioned)
+	private PartitionKeyRange partitionKeyRange;
+	// committed keys known by this step (null when no cache)
+	private KeyCache keyCache;
 
 	// Use to get/refresh the loadDTS
 	private Date nowDate;
@@ -109,6 +160,21 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 			int capacity = (int) ((meta.getBufferSize()) / 0.75 + 1);
 			lookupMapping = new HashMap<CompositeKeys, Long>(capacity);
 		}
+		if (sizeEstimator == null && meta.getBufferMemoryMB() > 0) {
+			sizeEstimator = new RowSizeEstimator(outputRowMeta);
+			maxBufferBytes = meta.getBufferMemoryBytes();
+		}
+		if (keyCache == null && meta.getKeyCacheSize() > 0) {
+			keyCache = new KeyCache(meta.getKeyCacheSize());
+		}
+		if (commitTracker == null) {
+			commitTracker = new CommitTracker(meta.getCommitPolicy(), meta.getCommitInterval());
+			//reorder tag (past output row meta) spilled along with held rows
+			long spillBytes = meta.getSpillAfterMB() * 1024L * 1024L;
+			pendingRows = new SpillableRowList(outputRowMeta, spillBytes, 
+					meta.isPreserveOrder() ? outputRowMeta.size() : -1);
+			maxHeldRows = (spillBytes > 0) ? 0 : MAX_HELD_ROWS;
+		}
 		initRowIdx(meta);
 
 		// initialize all naming needing variable substitution (${var})
@@ -126,8 +192,36 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 		return lookupMapping.get(n);
 	}
 
+	public Long getKeyFromCache(Object[] originalRow) {
+		return keyCache.get(new CompositeKeys(originalRow, keysRowIdx));
+	}
+
+	// cached once committed
+	public void stageCachedKey(Object[] originalRow, Long key) {
+		if (keyCache != null) {
+			keyCache.stage(new CompositeKeys(originalRow, keysRowIdx), key);
+		}
+	}
+
+	public void publishCachedKeys() {
+		if (keyCache != null) {
+			keyCache.publishStaged();
+		}
+	}
+
+	public KeyCache getKeyCache() {
+		return keyCache;
+	}
+
+	public int getKeysHash(Object[] originalRow) {
+		return new CompositeKeys(originalRow, keysRowIdx).hashCode();
+	}
+
 	public boolean putKeyInMap(Object[] originalRow, Long valKey) {
-		CompositeKeys n = new CompositeKeys(originalRow, keysRowIdx);
+		return putKeyInMap(new CompositeKeys(originalRow, keysRowIdx), valKey);
+	}
+
+	public boolean putKeyInMap(CompositeKeys n, Long valKey) {
 		if (lookupMapping.containsKey(n)) {
 			return false;
 		} else {
@@ -144,6 +238,7 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 	 * 
 	 * @param rows
 	 * @param nbParamsClause
+	 * 		nb of keys per query (rows are looked-up in several queries when more)
 	 * @return number of row with successful lookup
 	 * @throws KettleDatabaseException
 	 */
@@ -151,63 +246,57 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 		// clean-up previous map
 		lookupMapping.clear();
 
-		for (int i = 0; i < nbParamsClause; i++) {
-			Object[] p;
-			// in case, we have less than buffer size
-			try {
-				p = rows.get(i);
-			} catch (IndexOutOfBoundsException e) {
-				p = null;
+		int from = 0;
+		do {
+			for (int i = 0; i < nbParamsClause; i++) {
+				Object[] p;
+				// in case, we have less than buffer size
+				try {
+					p = rows.get(from + i);
+				} catch (IndexOutOfBoundsException e) {
+					p = null;
+				}
+				for (int j = 0; j < keysRowIdx.length; j++) {
+					int pIdx = (i * keysRowIdx.length) + (j + 1);
+					// Rely on key params of lookupRowMeta positioned
+					// after TechKeyCol (hence j+1) with same order as in UI
+					db.setValue(prepStmtLookup, lookupRowMeta.getValueMeta(j + 1), 
+							(p == null) ? null : p[keysRowIdx[j]],pIdx);
+				}
 			}
-			for (int j = 0; j < keysRowIdx.length; j++) {
-				int pIdx = (i * keysRowIdx.length) + (j + 1);
-				// Rely on key params of lookupRowMeta positioned
-				// after TechKeyCol (hence j+1) with same order as in UI
-				db.setValue(prepStmtLookup, lookupRowMeta.getValueMeta(j + 1), 
-						(p == null) ? null : p[keysRowIdx[j]],pIdx);
+	
+			ResultSet rs;
+			try {
+				rs = prepStmtLookup.executeQuery();
+				// release prepared Stmt params
+				prepStmtLookup.clearParameters();
+			} catch (SQLException e) {
+				throw new KettleDatabaseException("Unable to execute Lookup query", e);
 			}
-		}
-
-		ResultSet rs;
-		try {
-			rs = prepStmtLookup.executeQuery();
-			// release prepared Stmt params
-			prepStmtLookup.clearParameters();
-		} catch (SQLException e) {
-			throw new KettleDatabaseException("Unable to execute Lookup query", e);
-		}
-
-		for (Object[] r : getLookupRows(rs, keysRowIdx.length + 1, nbParamsClause)) {
-			CompositeKeys v = new CompositeKeys(r, 1, keysRowIdx.length);
-			lookupMapping.put(v, (Long) r[0]);
-		}
+	
+			readLookupRows(rs, keysRowIdx.length + 1, nbParamsClause);
+			from += nbParamsClause;
+		} while (from < rows.size());
 		return lookupMapping.size();
 	}
 
 	// Not using Database.getRows() as it calls getOneRow(string sql)
 	// which changes metaRow instance variable in Database!
 	// This interferes with Database.getNextValue used with TABLE-MAX
-	private List<Object[]> getLookupRows(ResultSet rs, int nbcols, int maxrows) throws KettleDatabaseException {
-
-		List<Object[]> result = new ArrayList<Object[]>(maxrows);
-		boolean stop = false;
+	// Rows are read in one scratch array (CompositeKeys copies values), no list nor array per row 
+	private void readLookupRows(ResultSet rs, int nbcols, int maxrows) throws KettleDatabaseException {
+		Object[] row = new Object[nbcols];
 		int n = 0;
 		try {
-			while (!stop && n < maxrows) {
-				Object[] row = new Object[nbcols];
-				if (rs.next()) {
-					for (int i = 0; i < nbcols; i++) {
-						ValueMetaInterface val = lookupRowMeta.getValueMeta(i);
-						row[i] = db.getDatabaseMeta().getValueFromResultSet(rs, val, i);
-					}
-					result.add(row);
-					n++;
-				} else {
-					stop = true;
+			while (n < maxrows && rs.next()) {
+				for (int i = 0; i < nbcols; i++) {
+					ValueMetaInterface val = lookupRowMeta.getValueMeta(i);
+					row[i] = db.getDatabaseMeta().getValueFromResultSet(rs, val, i);
 				}
+				lookupMapping.put(new CompositeKeys(row, 1, nbcols - 1), (Long) row[0]);
+				n++;
 			}
 			db.closeQuery(rs);
-			return result;
 		} catch (Exception e) {
 			throw new KettleDatabaseException("Unable to get list of rows from ResultSet : ", e);
 		}
@@ -227,11 +316,11 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 		 * (m=bufferSize)
 		 */
 
-		StringBuffer sql = new StringBuffer(meta.getBufferSize() * 100);
+		StringBuffer sql = new StringBuffer(bufferSize * 100);
 		sql.append(" SELECT ").append(db.getDatabaseMeta().quoteField(meta.getTechKeyCol()));
 
 		StringBuffer nkcols = new StringBuffer(100);
-		StringBuffer endClause = new StringBuffer(meta.getBufferSize() * 100);
+		StringBuffer endClause = new StringBuffer(bufferSize * 100);
 		endClause.append(" WHERE ").append(Const.CR);
 
 		for (int j = 0; j < bufferSize; j++) {
@@ -289,7 +378,7 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 		 * VALUES(?, ?, ? ..)
 		 * 
 		 * n.b. VALUES when used with Sequence: VALUES( .., seq.nextVal())
-		 * This sequence syntax is DB specific
+		 * This sequence syntax is DB specific (not used when sequence is prefetched)
 		 * 
 		 */
 		
@@ -348,14 +437,15 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 		// ***********************************************
 		// 4- Handle technical key (PK)
 		// ***********************************************
-		if (meta.getKeyGeneration().equals(BaseLoadMeta.CREATION_METHOD_SEQUENCE)) {
+		if (meta.isMethodSequence() && !meta.isPrefetchSequence()) {
 			sqlIns += ", " + db.getDatabaseMeta().quoteField(meta.getTechKeyCol());
 			// Hack to remove Select for postgre, and From &dual for Oracle syntax
 			//WILL NOT WORK FOR OTHER MORE EXOTIC "getSeqNextvalSQL" (TODO: should be fixed at PDI level)
 			String nextStr = db.getDatabaseMeta().getSeqNextvalSQL(meta.getSequenceName()).
 							replace("SELECT","").replace("FROM", "").replace("dual","");
 			sqlValues += ", " + nextStr;
-		} else if (meta.getKeyGeneration().equals(BaseLoadMeta.CREATION_METHOD_TABLEMAX)) {
+		} else if (meta.isKeyAssignedByStep()) {
+			// TABLEMAX, SEGMENT or prefetched sequence: key bound as normal parameter
 			sqlIns += ", " + db.getDatabaseMeta().quoteField(meta.getTechKeyCol());
 			sqlValues += ", ?";
 			insertRowMeta.addValueMeta(new ValueMetaInteger(meta.getTechKeyCol()));
@@ -379,6 +469,159 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 		}
 	}
 
+	/**
+	 * Prepare the query fetching sequence values in blocks, i.e. one query per buffer.
+	 * Block syntax is DB specific, currently supported: 
+	 * <ul>
+	 * <li>PostgreSQL (and derived): SELECT nextval('seq') FROM generate_series(1, ?)
+	 * <li>Oracle: SELECT seq.nextval FROM dual CONNECT BY LEVEL <= ?
+	 * </ul>
+	 * Other DB fall back to executing the single nextval query once per new key.
+	 * 
+	 * @param meta
+	 * @throws KettleDatabaseException
+	 */
+	public void initPrepStmtSequence(BaseLoadMeta meta) throws KettleDatabaseException {
+		DatabaseMeta dbMeta = db.getDatabaseMeta();
+		String seqName = dbMeta.environmentSubstitute(meta.getSequenceName());
+		String nextSql = dbMeta.getSeqNextvalSQL(seqName);
+		
+		if (dbMeta.getDatabaseInterface() instanceof PostgreSQLDatabaseMeta) {
+			nextSql += " FROM generate_series(1, ?)";
+			sequenceBlockQuery = true;
+		} else if (dbMeta.getDatabaseInterface() instanceof OracleDatabaseMeta) {
+			nextSql += " CONNECT BY LEVEL <= ?";
+			sequenceBlockQuery = true;
+		} else {
+			sequenceBlockQuery = false;
+			log.logBasic("No block syntax for sequence on this database, fetching values one at a time");
+		}
+		try {
+			log.logDebug("Prepared statement for Sequence:" + Const.CR + nextSql);
+			prepStmtSequence = db.getConnection().prepareStatement(dbMeta.stripCR(nextSql));
+		} catch (SQLException ex) {
+			throw new KettleDatabaseException(ex);
+		}
+	}
+
+	/**
+	 * Fetch the next nbKeys values of the sequence 
+	 * 
+	 * @param nbKeys
+	 * @return new key values (ordering is not guaranteed)
+	 * @throws KettleDatabaseException
+	 */
+	public List<Long> fetchSequenceValues(int nbKeys) throws KettleDatabaseException {
+		List<Long> keys = new ArrayList<Long>(nbKeys);
+		if (nbKeys == 0) {
+			return keys;
+		}
+		try {
+			if (sequenceBlockQuery) {
+				prepStmtSequence.setInt(1, nbKeys);
+				readSequenceValues(prepStmtSequence.executeQuery(), keys);
+			} else {
+				for (int i = 0; i < nbKeys; i++) {
+					readSequenceValues(prepStmtSequence.executeQuery(), keys);
+				}
+			}
+		} catch (SQLException e) {
+			throw new KettleDatabaseException("Unable to fetch values from sequence", e);
+		}
+		if (keys.size() != nbKeys) {
+			throw new KettleDatabaseException("Sequence returned " + keys.size() + " values, expecting " + nbKeys);
+		}
+		return keys;
+	}
+
+	private void readSequenceValues(ResultSet rs, List<Long> keys) throws SQLException, KettleDatabaseException {
+		while (rs.next()) {
+			keys.add(rs.getLong(1));
+		}
+		db.closeQuery(rs);
+	}
+
+	/**
+	 * Initialize in-process key generation: segment starts above the current max key of table 
+	 * (the high-water mark persisted in table), generator id distinguishes step copies.
+	 * 
+	 * @param meta
+	 * @param generatorId normally the step copy number
+	 * @throws KettleDatabaseException
+	 */
+	public void initSegmentKeyGenerator(BaseLoadMeta meta, int generatorId) throws KettleDatabaseException {
+		long maxKey = readMaxKey(meta);
+		try {
+			segmentKeyGenerator = new SegmentKeyGenerator(maxKey, generatorId);
+		} catch (IllegalArgumentException e) {
+			throw new KettleDatabaseException(e.getMessage(), e);
+		}
+		log.logBasic("In-process key generation using segment " + segmentKeyGenerator.getSegment() 
+				+ " with generator id " + generatorId);
+	}
+
+	/**
+	 * Partitioned "table max": partition only uses its own keys above current max key 
+	 * 
+	 * @param meta
+	 * @param partitionNr 
+	 * @param nbPartitions
+	 * @throws KettleDatabaseException
+	 */
+	public void initPartitionKeyRange(BaseLoadMeta meta, int partitionNr, int nbPartitions) throws KettleDatabaseException {
+		partitionKeyRange = new PartitionKeyRange(readMaxKey(meta), partitionNr, nbPartitions);
+		log.logBasic("Partition " + partitionNr + " of " + nbPartitions + " uses keys where key % " 
+				+ nbPartitions + " = " + partitionNr);
+	}
+
+	public List<Long> nextPartitionKeys(int nbKeys) {
+		List<Long> keys = new ArrayList<Long>(nbKeys);
+		for (int i = 0; i < nbKeys; i++) {
+			keys.add(partitionKeyRange.nextKey());
+		}
+		return keys;
+	}
+
+	public boolean hasPartitionKeyRange() {
+		return partitionKeyRange != null;
+	}
+
+	private long readMaxKey(BaseLoadMeta meta) throws KettleDatabaseException {
+		String sql = "SELECT MAX(" + db.getDatabaseMeta().quoteField(meta.getTechKeyCol()) + ") FROM " + qualifiedTable;
+		long maxKey = 0;
+		try {
+			Statement stmt = db.getConnection().createStatement();
+			try {
+				ResultSet rs = stmt.executeQuery(sql);
+				if (rs.next()) {
+					maxKey = rs.getLong(1);
+				}
+				rs.close();
+			} finally {
+				stmt.close();
+			}
+		} catch (SQLException e) {
+			throw new KettleDatabaseException("Unable to read max key with: " + sql, e);
+		}
+		return maxKey;
+	}
+
+	public List<Long> nextSegmentKeys(int nbKeys) {
+		List<Long> keys = new ArrayList<Long>(nbKeys);
+		for (int i = 0; i < nbKeys; i++) {
+			keys.add(segmentKeyGenerator.nextKey());
+		}
+		return keys;
+	}
+
+	/*
+	 * Used when new keys are known before insert: no need to re-lookup them 
+	 */
+	public void putNewKeysInMap(List<Object[]> newRows, List<Long> newKeys) {
+		for (int i = 0; i < newRows.size(); i++) {
+			lookupMapping.put(new CompositeKeys(newRows.get(i), keysRowIdx), newKeys.get(i));
+		}
+	}
 
 	public void initRowIdx(BaseLoadMeta meta) throws KettleStepException {
 		int nbKey = 0;
@@ -397,7 +640,7 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 			
 			ValueMetaInterface vl = outputRowMeta.getValueMeta
 										(outputRowMeta.indexOfValue(meta.getFields()[i]));
-			if (vl.isStorageBinaryString()){
+			if (vl.isStorageBinaryString() && meta.getTypes()[i].equals(meta.getIdKeyTypeString())){
 				nbBinary++;
 			}
 		}
@@ -418,6 +661,13 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 					throw new KettleStepException(BaseMessages.getString(PKG, "Load.Exception.FieldNotFound",
 							meta.getFields()[i]));
 				}
+				//keys are needed by every row (lookup/cache), so converted once upfront 
+				ValueMetaInterface vl = outputRowMeta.getValueMeta(keysRowIdx[nbKey]);
+				if (vl.isStorageBinaryString()){
+					vl.setStorageType(ValueMetaInterface.STORAGE_TYPE_NORMAL);
+					fieldsInBinary[nbBinary] = keysRowIdx[nbKey];
+					nbBinary++;
+				}
 				nbKey++;
 			} else if (meta.getTypes()[i].equals(meta.getOtherTypeString())) {
 				nonekeysRowIdx[nbNoneKey] = outputRowMeta.indexOfValue(meta.getFields()[i]);
@@ -427,20 +677,19 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 				}
 				nbNoneKey++;
 			}
-			
-			ValueMetaInterface vl = outputRowMeta.getValueMeta
-										(outputRowMeta.indexOfValue(meta.getFields()[i]));
-			if (vl.isStorageBinaryString()){
-				vl.setStorageType(ValueMetaInterface.STORAGE_TYPE_NORMAL);
-				fieldsInBinary[nbBinary] = outputRowMeta.indexOfValue(meta.getFields()[i]);
-				nbBinary++;
-			}
 		}
 	}
 
 	public boolean addToBufferRows(Object[] r, int bufferSize) {
+		if (bufferRows.isEmpty()) {
+			bufferBytes = 0;
+		}
 		if (bufferRows.size() < bufferSize) {
 			bufferRows.add(r);
+			if (sizeEstimator != null) {
+				bufferBytes += sizeEstimator.estimate(r) + LOOKUP_ENTRY_BYTES;
+				return (bufferRows.size() < bufferSize) && bufferBytes < maxBufferBytes;
+			}
 			return (bufferRows.size() < bufferSize);
 		} else {
 			return false;
@@ -461,8 +710,8 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 				db.setValue(prepStmtInsert, insertRowMeta.getValueMeta(pIdx), oriRow[keysRowIdx[keyCounter]], pIdx + 1);
 				keyCounter++;
 			} else if (meta.getTypes()[i].equals(meta.getOtherTypeString())) {
-				db.setValue(prepStmtInsert, insertRowMeta.getValueMeta(pIdx), oriRow[nonekeysRowIdx[nonekeyCounter]],
-						pIdx + 1);
+				db.setValue(prepStmtInsert, insertRowMeta.getValueMeta(pIdx), 
+						normalValue(oriRow, nonekeysRowIdx[nonekeyCounter]), pIdx + 1);
 				nonekeyCounter++;
 			}
 		}
@@ -485,7 +734,7 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 		// ***********************************************
 		// 3- Handle technical key (PK)
 		// ***********************************************
-		if (meta.isMethodTableMax()) {
+		if (meta.isKeyAssignedByStep()) {
 			pIdx = insertRowMeta.indexOfValue(meta.getTechKeyCol());
 			db.setValue(prepStmtInsert, insertRowMeta.getValueMeta(pIdx), newKey, pIdx + 1);
 			// log.logBasic("tech key:" + newKey + "  at pos=" + pIdx);
@@ -501,16 +750,76 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 		}
 	}
 
+	/*
+	 * Value converted when stored as binary string (row is left lazy for downstream steps) 
+	 */
+	private Object normalValue(Object[] row, int idx) throws KettleDatabaseException {
+		ValueMetaInterface vm = outputRowMeta.getValueMeta(idx);
+		if (!vm.isStorageBinaryString()) {
+			return row[idx];
+		}
+		try {
+			return vm.convertToNormalStorageType(row[idx]);
+		} catch (KettleValueException e) {
+			throw new KettleDatabaseException("Unable to convert binary field: " + vm.getName(), e);
+		}
+	}
+
+	/*
+	 * Sort rows on business keys (in UI order), so every writer inserts keys in same order 
+	 */
+	public void sortByKeys(List<Object[]> rows) throws KettleStepException {
+		try {
+			Collections.sort(rows, new Comparator<Object[]>() {
+				public int compare(Object[] r1, Object[] r2) {
+					try {
+						for (int i = 0; i < keysRowIdx.length; i++) {
+							int c = outputRowMeta.getValueMeta(keysRowIdx[i]).compare(r1[keysRowIdx[i]], r2[keysRowIdx[i]]);
+							if (c != 0) {
+								return c;
+							}
+						}
+						return 0;
+					} catch (KettleValueException e) {
+						throw new IllegalArgumentException(e);
+					}
+				}
+			});
+		} catch (IllegalArgumentException e) {
+			throw new KettleStepException("Unable to sort new keys", e.getCause());
+		}
+	}
+
 	// Issues with multi-threading ("# of copies to start.. > 1):  
+	// (avoid dead-lock with option sortNewKeys)
 	// - PG fails on duplicates since batch is aborted at first insertion 
 	// - MySQL fails with dead-lock while trying to get lock by diff threads
-	public void executeBatchInsert(BaseStepMeta meta, int insertCtnExpected) throws KettleDatabaseException {
+	// Returns true when all rows were inserted, false when driver continued after some failure(s)
+	/**
+	 * Bind and execute rows by JDBC batches of insert batch size 
+	 * @return true when all rows were inserted, false when driver continued after some failure(s)
+	 */
+	public boolean executeBatchInsert(BaseLoadMeta meta, List<Object[]> rows, List<Long> newKeys) 
+			throws KettleDatabaseException {
+		int batchSize = meta.getInsertBatchSize(rows.size());
+		boolean allInserted = true;
+		for (int from = 0; from < rows.size(); from += batchSize) {
+			int to = Math.min(rows.size(), from + batchSize);
+			for (int i = from; i < to; i++) {
+				addBatchInsert(meta, rows.get(i), (newKeys == null) ? null : newKeys.get(i));
+			}
+			allInserted &= executeBatchInsert(meta, to - from);
+		}
+		return allInserted;
+	}
+
+	public boolean executeBatchInsert(BaseStepMeta meta, int insertCtnExpected) throws KettleDatabaseException {
 		int[] nbIns = null;
 		try {
 			nbIns = prepStmtInsert.executeBatch();
 			prepStmtInsert.clearBatch();
-			//commit ASAP for letting others see new keys 
-			db.commit();
+			//commit is done by the step according to commit policy
+			return true;
 		} catch (BatchUpdateException ex) {
 			nbIns = ex.getUpdateCounts();
 			SQLException nextException = ex;
@@ -520,11 +829,11 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 			
 			if (insertCtnExpected == nbIns.length) {
 				log.logError("BatchUpdateException raised but JDBC driver continued processing rows");
-				db.commit();
 				// Continue processing, possible causes:
 				// Hub: business key(s) already loaded (to be confirmed by later checks)
 				// Link: either -violation of FKs unique constraint (same business key issue as Hub) 
 				//              -or FK referential integrity (then process will fail during check after...)
+				return false;
 			} else {
 				throw new KettleDatabaseException("Error during batch, only " + nbIns.length 
 						+ " rows processed out of " +insertCtnExpected, ex);
@@ -534,6 +843,120 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 		}
 	}
 
+	/**
+	 * Execute batch insert in recovery mode: failing batch is rolled back to a savepoint 
+	 * and re-executed in halves until rows rejected by DB are isolated.
+	 * 
+	 * @param meta
+	 * @param rows new rows already added to batch
+	 * @param newKeys key of new rows (null when generated by DB) 
+	 * @return bisector holding index of rejected rows with their cause 
+	 * @throws KettleDatabaseException
+	 */
+	public BatchBisector executeBatchInsertWithRecovery(final BaseLoadMeta meta, final List<Object[]> rows,
+			final List<Long> newKeys) throws KettleDatabaseException {
+		BatchBisector bisector = new BatchBisector(db, prepStmtInsert) {
+			protected void addBatch(int idx) throws KettleDatabaseException {
+				addBatchInsert(meta, rows.get(idx), (newKeys == null) ? null : newKeys.get(idx));
+			}
+		};
+		bisector.execute(rows.size(), meta.getInsertBatchSize(rows.size()));
+		return bisector;
+	}
+
+	/**
+	 * Check whether target has no row at all (initial load)
+	 */
+	public boolean isTargetEmpty(BaseLoadMeta meta) throws KettleDatabaseException {
+		String sql = "SELECT " + db.getDatabaseMeta().quoteField(meta.getTechKeyCol()) + " FROM " + qualifiedTable;
+		try {
+			Statement stmt = db.getConnection().createStatement();
+			try {
+				stmt.setMaxRows(1);
+				ResultSet rs = stmt.executeQuery(sql);
+				boolean empty = !rs.next();
+				rs.close();
+				return empty;
+			} finally {
+				stmt.close();
+			}
+		} catch (SQLException e) {
+			throw new KettleDatabaseException("Unable to check content of target with: " + sql, e);
+		}
+	}
+
+	/*
+	 * Same as populateMap() for initial load: lookup done in memory only 
+	 */
+	public int populateMapFromLoadedKeys(List<Object[]> rows) {
+		lookupMapping.clear();
+		for (Object[] r : rows) {
+			CompositeKeys k = new CompositeKeys(r, keysRowIdx);
+			Long key = loadedKeys.get(k);
+			if (key != null) {
+				lookupMapping.put(k, key);
+			}
+		}
+		return lookupMapping.size();
+	}
+
+	/**
+	 * Keep new keys of current buffer in memory 
+	 * @return false when too many keys for memory
+	 */
+	public boolean addLoadedKeys() {
+		loadedKeys.putAll(lookupMapping);
+		return loadedKeys.size() <= INITIAL_LOAD_MAX_KEYS;
+	}
+
+	/**
+	 * Execute batch insert during initial load.  When failing (normally another writer 
+	 * has loaded same key), batch is rolled back to savepoint so the buffer can be reprocessed 
+	 * in normal mode. 
+	 * @return false when batch failed and was rolled back
+	 */
+	public boolean executeBatchInsertInitialLoad(BaseLoadMeta meta, List<Object[]> rows, List<Long> newKeys) 
+			throws KettleDatabaseException {
+		int batchSize = meta.getInsertBatchSize(rows.size());
+		Savepoint sp = db.setSavepoint();
+		try {
+			//all batches of buffer rolled back together
+			for (int from = 0; from < rows.size(); from += batchSize) {
+				int to = Math.min(rows.size(), from + batchSize);
+				for (int i = from; i < to; i++) {
+					addBatchInsert(meta, rows.get(i), (newKeys == null) ? null : newKeys.get(i));
+				}
+				prepStmtInsert.executeBatch();
+				prepStmtInsert.clearBatch();
+			}
+			db.releaseSavepoint(sp);
+			return true;
+		} catch (SQLException ex) {
+			log.logError("Batch failed during initial load: " 
+					+ (ex.getNextException() != null ? ex.getNextException().getMessage() : ex.getMessage()));
+			try {
+				prepStmtInsert.clearBatch();
+			} catch (SQLException e) {
+				throw new KettleDatabaseException(e);
+			}
+			db.rollback(sp);
+			return false;
+		}
+	}
+
+	public boolean isInitialLoad() {
+		return initialLoad;
+	}
+
+	public void setInitialLoad(boolean initialLoad) {
+		this.initialLoad = initialLoad;
+		if (initialLoad && loadedKeys == null) {
+			loadedKeys = new HashMap<CompositeKeys, Long>();
+		} else if (!initialLoad) {
+			loadedKeys = null;
+		}
+	}
+
 	/*
 	 * Get the loading DTS fix by load or refresh for each record
 	 */
@@ -556,6 +979,97 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 		return bufferRows;
 	}
 
+	/*
+	 * Hand-over the filled buffer (pipelined mode) and start a new one 
+	 */
+	public List<Object[]> swapBufferRows() {
+		List<Object[]> filled = bufferRows;
+		bufferRows = new ArrayList<Object[]>(filled.size() + 10);
+		return filled;
+	}
+
+	/*
+	 * Share reservations with other steps loading same table 
+	 */
+	public void joinReservations(BaseLoadMeta meta) {
+		reservations = KeyReservations.join(meta.getDatabaseMeta().getName(), qualifiedTable);
+		reservedKeys = new ArrayList<CompositeKeys>();
+	}
+
+	public void leaveReservations(BaseLoadMeta meta) {
+		releaseReservedKeys();
+		KeyReservations.leave(meta.getDatabaseMeta().getName(), qualifiedTable);
+		reservations = null;
+	}
+
+	/**
+	 * @return true when key of row is reserved for this step to insert, false 
+	 * when another step is loading it 
+	 */
+	public boolean reserveKey(Object[] row) {
+		return reserveKey(new CompositeKeys(row, keysRowIdx));
+	}
+
+	public boolean reserveKey(CompositeKeys k) {
+		if (reservations.reserve(k, this)) {
+			reservedKeys.add(k);
+			return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Once committed (or rolled back): other steps can read keys 
+	 */
+	public void releaseReservedKeys() {
+		if (reservations != null && reservedKeys.size() > 0) {
+			reservations.release(reservedKeys);
+			reservedKeys.clear();
+		}
+	}
+
+	/**
+	 * @return true when another step copy waits on a key reserved by this one
+	 */
+	public boolean isReservationAwaited() {
+		return reservations != null && !reservedKeys.isEmpty() && reservations.isAwaited(this);
+	}
+
+	public KeyReservations getReservations() {
+		return reservations;
+	}
+
+	public CommitTracker getCommitTracker() {
+		return commitTracker;
+	}
+
+	public SpillableRowList getPendingRows() {
+		return pendingRows;
+	}
+
+	/**
+	 * @return true when rows held in memory reached their cap, so a commit must be forced 
+	 */
+	public boolean isHeldRowsFull() {
+		return maxHeldRows > 0 && pendingRows.size() >= maxHeldRows;
+	}
+
+	public PartitionExchange getExchange() {
+		return exchange;
+	}
+
+	public void setExchange(PartitionExchange exchange) {
+		this.exchange = exchange;
+	}
+
+	public boolean isBatchRecovery() {
+		return batchRecovery;
+	}
+
+	public void setBatchRecovery(boolean batchRecovery) {
+		this.batchRecovery = batchRecovery;
+	}
+
 	public int[] getKeysRowIdx() {
 		return keysRowIdx;
 	}
@@ -572,6 +1086,10 @@ public class LoadHubLinkData extends BaseStepData implements StepDataInterface {
 		return prepStmtInsert;
 	}
 
+	public PreparedStatement getPrepStmtSequence() {
+		return prepStmtSequence;
+	}
+
 	public RowMetaInterface getLookupRowMeta() {
 		return lookupRowMeta;
 	}
@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Route rows between copies of the same step, so that each copy owns
+ * the business keys whose hash maps to its copy number.  As a given key
+ * is always processed by the same copy, concurrent copies can no longer
+ * insert the same key twice.
+ * <p>
+ * One exchange is shared by all copies of a step (within a JVM), each copy
+ * has its own bounded inbox.  Sending never blocks: when the owner's inbox is
+ * full, the sender keeps the row and drains its own inbox until there is room,
+ * so copies sending to each other never wait on one another (no dead-lock).
+ * <p>
+ * Copy is done when all copies have finished reading their input and its
+ * inbox is empty.
+ *
+ * @author mouellet
+ *
+ */
+public class PartitionExchange {
+
+	private static final Map<List<Object>, PartitionExchange> exchanges = new HashMap<List<Object>, PartitionExchange>();
+
+	private final List<BlockingQueue<Object[]>> inboxes;
+	private final AtomicInteger nbFinished = new AtomicInteger();
+	private int nbUsers;
+	// published by first copy reading a row, for copies not receiving any input
+	private volatile RowMetaInterface inputRowMeta;
+
+	/**
+	 * @param capacity max rows waiting in each inbox
+	 */
+	PartitionExchange(int nbCopies, int capacity) {
+		inboxes = new ArrayList<BlockingQueue<Object[]>>(nbCopies);
+		for (int i = 0; i < nbCopies; i++) {
+			inboxes.add(new ArrayBlockingQueue<Object[]>(Math.max(1, capacity)));
+		}
+	}
+
+	/**
+	 * Get the exchange shared by all copies of step (created by first copy)
+	 *
+	 * @param trans running transformation
+	 * @param stepname
+	 * @param nbCopies
+	 * @param capacity max rows waiting in each inbox
+	 */
+	public static synchronized PartitionExchange join(Object trans, String stepname, int nbCopies, int capacity) {
+		List<Object> id = Arrays.asList(trans, stepname);
+		PartitionExchange ex = exchanges.get(id);
+		if (ex == null) {
+			ex = new PartitionExchange(nbCopies, capacity);
+			exchanges.put(id, ex);
+		}
+		ex.nbUsers++;
+		return ex;
+	}
+
+	/**
+	 * Release the exchange (removed when last copy leaves)
+	 */
+	public static synchronized void leave(Object trans, String stepname) {
+		List<Object> id = Arrays.asList(trans, stepname);
+		PartitionExchange ex = exchanges.get(id);
+		if (ex != null && --ex.nbUsers <= 0) {
+			exchanges.remove(id);
+		}
+	}
+
+	/**
+	 * @return the copy (or partition) owning the key with this hash
+	 */
+	public static int ownerOf(int keyHash, int nbCopies) {
+		return (keyHash & Integer.MAX_VALUE) % nbCopies;
+	}
+
+	public int getNbCopies() {
+		return inboxes.size();
+	}
+
+	public RowMetaInterface getInputRowMeta() {
+		return inputRowMeta;
+	}
+
+	public void setInputRowMeta(RowMetaInterface inputRowMeta) {
+		if (this.inputRowMeta == null) {
+			this.inputRowMeta = inputRowMeta;
+		}
+	}
+
+	/**
+	 * @return false when copy's inbox is full (row not sent, sender must drain its own inbox and retry)
+	 */
+	public boolean offer(int copy, Object[] row) {
+		return inboxes.get(copy).offer(row);
+	}
+
+	public Object[] poll(int copy) {
+		return inboxes.get(copy).poll();
+	}
+
+	public Object[] poll(int copy, long timeoutMs) throws InterruptedException {
+		return inboxes.get(copy).poll(timeoutMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * To call by each copy once its own input is exhausted and all its rows sent (no more sending after this)
+	 */
+	public void finishedReading() {
+		nbFinished.incrementAndGet();
+	}
+
+	/**
+	 * @return true when no more rows can arrive in copy's inbox
+	 */
+	public boolean isDone(int copy) {
+		// order matters: all senders finished before checking inbox
+		return nbFinished.get() >= inboxes.size() && inboxes.get(copy).isEmpty();
+	}
+
+}
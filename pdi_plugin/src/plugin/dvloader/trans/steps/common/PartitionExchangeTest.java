@@ -0,0 +1,147 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class PartitionExchangeTest {
+
+	@Test
+	public void testOwner() {
+		CompositeKeys k1 = new CompositeKeys(new Object[] {"v1", 10L});
+		CompositeKeys k2 = new CompositeKeys(new Object[] {"v1", 10L});
+		assertEquals(PartitionExchange.ownerOf(k1.hashCode(), 4), PartitionExchange.ownerOf(k2.hashCode(), 4));
+		// negative hash still in range
+		int o = PartitionExchange.ownerOf(Integer.MIN_VALUE + 3, 4);
+		assertTrue(o >= 0 && o < 4);
+	}
+
+	@Test
+	public void testSharedByCopies() {
+		Object trans = new Object();
+		PartitionExchange e0 = PartitionExchange.join(trans, "hub", 2, 10);
+		PartitionExchange e1 = PartitionExchange.join(trans, "hub", 2, 10);
+		assertTrue(e0 == e1);
+		assertFalse(e0 == PartitionExchange.join(trans, "link", 2, 10));
+		PartitionExchange.leave(trans, "link");
+
+		PartitionExchange.leave(trans, "hub");
+		assertTrue(e0 == PartitionExchange.join(trans, "hub", 2, 10));
+		PartitionExchange.leave(trans, "hub");
+		PartitionExchange.leave(trans, "hub");
+		assertFalse(e0 == PartitionExchange.join(trans, "hub", 2, 10));
+		PartitionExchange.leave(trans, "hub");
+	}
+
+	@Test
+	public void testDone() {
+		PartitionExchange e = new PartitionExchange(2, 10);
+		Object[] row = new Object[] {"a"};
+		assertTrue(e.offer(1, row));
+		e.finishedReading();
+		assertFalse(e.isDone(0));
+		e.finishedReading();
+		assertTrue(e.isDone(0));
+		// copy 1 has still a row to process
+		assertFalse(e.isDone(1));
+		assertTrue(row == e.poll(1));
+		assertTrue(e.isDone(1));
+	}
+
+	@Test
+	public void testBoundedInbox() {
+		PartitionExchange e = new PartitionExchange(2, 2);
+		assertTrue(e.offer(1, new Object[] {"a"}));
+		assertTrue(e.offer(1, new Object[] {"b"}));
+		assertFalse(e.offer(1, new Object[] {"c"}));
+		e.poll(1);
+		assertTrue(e.offer(1, new Object[] {"c"}));
+	}
+
+	/*
+	 * Copy routing all its rows to the other: keeps row whose inbox is full and drains own inbox
+	 */
+	private static class Copy extends Thread {
+		private final PartitionExchange e;
+		private final int copy;
+		private final int nbRows;
+		private int nbReceived;
+
+		Copy(PartitionExchange e, int copy, int nbRows) {
+			this.e = e;
+			this.copy = copy;
+			this.nbRows = nbRows;
+		}
+
+		public void run() {
+			try {
+				int read = 0;
+				boolean finished = false;
+				Object[] pending = null;
+				while (true) {
+					if (pending != null && e.offer(1 - copy, pending)) {
+						pending = null;
+					}
+					if (!finished && read == nbRows && pending == null) {
+						e.finishedReading();
+						finished = true;
+					}
+					Object[] r = e.poll(copy);
+					if (r == null && pending != null) {
+						r = e.poll(copy, 10);
+					} else if (r == null && read < nbRows) {
+						Object[] own = new Object[] { copy, read++ };
+						if (!e.offer(1 - copy, own)) {
+							pending = own;
+						}
+						continue;
+					} else if (r == null) {
+						if (e.isDone(copy)) {
+							return;
+						}
+						r = e.poll(copy, 10);
+					}
+					if (r != null) {
+						nbReceived++;
+					}
+				}
+			} catch (InterruptedException ex) {
+				return;
+			}
+		}
+	}
+
+	@Test
+	public void testCrossSendingNoDeadlock() throws InterruptedException {
+		PartitionExchange e = new PartitionExchange(2, 4);
+		Copy c0 = new Copy(e, 0, 1000);
+		Copy c1 = new Copy(e, 1, 1000);
+		c0.start();
+		c1.start();
+		c0.join(10000);
+		c1.join(10000);
+		assertFalse(c0.isAlive() || c1.isAlive());
+		assertEquals(1000, c0.nbReceived);
+		assertEquals(1000, c1.nbReceived);
+	}
+
+}
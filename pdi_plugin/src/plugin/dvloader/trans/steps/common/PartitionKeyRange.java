@@ -0,0 +1,61 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+/**
+ * Tech keys owned by one partition when step runs partitioned (PDI partition
+ * schema, locally or clustered): partition p of n only uses keys where
+ * key % n == p, above the table max key read at start-up.  Ranges are disjoint
+ * whatever the start-up time of each partition, so no coordination (nor DB
+ * round-trip per key as with "table max") is needed.
+ * <p>
+ * Leaves gaps in keys when partitions load different volumes.
+ *
+ * @author mouellet
+ *
+ */
+public class PartitionKeyRange {
+
+	private final int nbPartitions;
+	private long next;
+
+	/**
+	 * @param maxExistingKey current maximum key of target table (0 or less when empty)
+	 * @param partitionNr partition number (0..nbPartitions-1)
+	 * @param nbPartitions
+	 */
+	public PartitionKeyRange(long maxExistingKey, int partitionNr, int nbPartitions) {
+		if (nbPartitions < 1 || partitionNr < 0 || partitionNr >= nbPartitions) {
+			throw new IllegalArgumentException("Invalid partition " + partitionNr + " out of " + nbPartitions);
+		}
+		this.nbPartitions = nbPartitions;
+		long first = Math.max(maxExistingKey, 0) + 1;
+		long rem = first % nbPartitions;
+		this.next = first + ((partitionNr - rem + nbPartitions) % nbPartitions);
+	}
+
+	public long nextKey() {
+		long key = next;
+		next += nbPartitions;
+		return key;
+	}
+
+	public static int partitionOf(long key, int nbPartitions) {
+		return (int) (key % nbPartitions);
+	}
+
+}
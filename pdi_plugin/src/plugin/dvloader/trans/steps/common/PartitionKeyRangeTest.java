@@ -0,0 +1,64 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PartitionKeyRangeTest {
+
+	@Test
+	public void testDisjointRanges() {
+		Set<Long> keys = new HashSet<Long>();
+		// partitions starting at different times (table max changed meanwhile)
+		PartitionKeyRange p0 = new PartitionKeyRange(100, 0, 3);
+		PartitionKeyRange p1 = new PartitionKeyRange(0, 1, 3);
+		PartitionKeyRange p2 = new PartitionKeyRange(157, 2, 3);
+		for (int i = 0; i < 1000; i++) {
+			long k0 = p0.nextKey();
+			long k1 = p1.nextKey();
+			long k2 = p2.nextKey();
+			assertEquals(0, PartitionKeyRange.partitionOf(k0, 3));
+			assertEquals(1, PartitionKeyRange.partitionOf(k1, 3));
+			assertEquals(2, PartitionKeyRange.partitionOf(k2, 3));
+			assertTrue(keys.add(k0));
+			assertTrue(keys.add(k1));
+			assertTrue(keys.add(k2));
+		}
+	}
+
+	@Test
+	public void testAboveMax() {
+		PartitionKeyRange p = new PartitionKeyRange(12, 0, 4);
+		assertEquals(16, p.nextKey());
+		assertEquals(20, p.nextKey());
+		assertEquals(13, new PartitionKeyRange(12, 1, 4).nextKey());
+		assertEquals(1, new PartitionKeyRange(0, 0, 1).nextKey());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidPartition() {
+		new PartitionKeyRange(0, 2, 2);
+	}
+
+}
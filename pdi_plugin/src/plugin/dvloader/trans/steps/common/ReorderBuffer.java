@@ -0,0 +1,139 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.row.RowDataUtil;
+
+/**
+ * Release rows downstream in their input order, although processed out of order 
+ * (existing keys before new ones, rows held until commit, pipelined buffers..).
+ * <p>
+ * Each input row is tagged with its slot in a bounded ring, stored in a spare slot of 
+ * the row itself (past the output row meta).  Once processed, the row waits in the ring 
+ * until all rows before it are released.  Rows sent to error handling only free their 
+ * slot.  When the ring is full, caller must flush (process and commit) pending rows 
+ * before tagging more.
+ * <p>
+ * Not thread-safe: tag and release from the step thread.
+ *
+ * @author mouellet
+ *
+ */
+public class ReorderBuffer {
+
+	public interface Output {
+		void put(Object[] row) throws KettleStepException;
+	}
+
+	private static final Object[] SKIPPED = new Object[0];
+
+	private final Output output;
+	private final int tagIdx;
+	private final Object[][] ring;
+	// slot numbers stored in rows (created once per slot)
+	private final Integer[] slotIds;
+	private long nextIn;
+	private long nextOut;
+
+	/**
+	 * @param capacity max number of rows tagged and not yet sent downstream
+	 * @param tagIdx index of row slot holding the tag (= size of output row meta) 
+	 * @param output downstream of rows released in order
+	 */
+	public ReorderBuffer(int capacity, int tagIdx, Output output) {
+		this.ring = new Object[Math.max(16, capacity)][];
+		this.slotIds = new Integer[ring.length];
+		this.tagIdx = tagIdx;
+		this.output = output;
+	}
+
+	/**
+	 * Tag row in its input order (before any processing)
+	 * 
+	 * @return row to use from now on (resized when it had no spare slot)
+	 * @throws KettleStepException when ring is full
+	 */
+	public Object[] tag(Object[] row) throws KettleStepException {
+		if (isFull()) {
+			throw new KettleStepException("Reorder buffer full: " + ring.length + " rows waiting");
+		}
+		int slot = slot(nextIn++);
+		if (slotIds[slot] == null) {
+			slotIds[slot] = Integer.valueOf(slot);
+		}
+		row = RowDataUtil.resizeArray(row, tagIdx + 1);
+		row[tagIdx] = slotIds[slot];
+		return row;
+	}
+
+	/**
+	 * @return true when no more row can be tagged before some are sent downstream
+	 */
+	public boolean isFull() {
+		return nextIn - nextOut >= ring.length;
+	}
+
+	/**
+	 * Row is processed: send it downstream with any following rows already processed
+	 */
+	public void release(Object[] row) throws KettleStepException {
+		put(row, row);
+	}
+
+	/**
+	 * Row will not be sent downstream (e.g. sent to error handling).  
+	 * Call before handing the row to another step.
+	 */
+	public void skip(Object[] row) throws KettleStepException {
+		put(row, SKIPPED);
+	}
+
+	private void put(Object[] row, Object[] slotValue) throws KettleStepException {
+		Object tag = (row.length > tagIdx) ? row[tagIdx] : null;
+		if (!(tag instanceof Integer) || ring[(Integer) tag] != null) {
+			throw new KettleStepException("Row released without being tagged (or released twice)");
+		}
+		//tag not sent downstream
+		row[tagIdx] = null;
+		ring[(Integer) tag] = slotValue;
+		while (nextOut < nextIn && ring[slot(nextOut)] != null) {
+			Object[] r = ring[slot(nextOut)];
+			ring[slot(nextOut)] = null;
+			nextOut++;
+			if (r != SKIPPED) {
+				output.put(r);
+			}
+		}
+	}
+
+	private int slot(long seq) {
+		return (int) (seq % ring.length);
+	}
+
+	/**
+	 * @return nb of rows tagged and not yet sent downstream
+	 */
+	public int getWaiting() {
+		return (int) (nextIn - nextOut);
+	}
+
+	public int getCapacity() {
+		return ring.length;
+	}
+
+}
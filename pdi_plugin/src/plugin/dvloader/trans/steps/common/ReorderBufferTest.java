@@ -0,0 +1,129 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleStepException;
+
+public class ReorderBufferTest {
+
+	private final List<Object> out = new ArrayList<Object>();
+
+	private final ReorderBuffer.Output output = new ReorderBuffer.Output() {
+		public void put(Object[] row) {
+			out.add(row[0]);
+		}
+	};
+
+	private Object[][] rows(int n) {
+		Object[][] rows = new Object[n][];
+		for (int i = 0; i < n; i++) {
+			// no spare slot: resized by tag
+			rows[i] = new Object[] {i};
+		}
+		return rows;
+	}
+
+	private void tagAll(ReorderBuffer rb, Object[][] rows, int from, int to) throws KettleStepException {
+		for (int i = from; i < to; i++) {
+			rows[i] = rb.tag(rows[i]);
+		}
+	}
+
+	@Test
+	public void testReleasedInOrder() throws KettleStepException {
+		ReorderBuffer rb = new ReorderBuffer(16, 1, output);
+		Object[][] rows = rows(5);
+		tagAll(rb, rows, 0, 5);
+		rb.release(rows[2]);
+		rb.release(rows[4]);
+		assertEquals(0, out.size());
+		rb.release(rows[0]);
+		assertEquals(1, out.size());
+		// error row only frees its slot
+		rb.skip(rows[1]);
+		assertEquals(2, out.size());
+		rb.release(rows[3]);
+		assertEquals(4, out.size());
+		assertEquals(0, rb.getWaiting());
+		assertEquals(0, out.get(0));
+		assertEquals(2, out.get(1));
+		assertEquals(3, out.get(2));
+		assertEquals(4, out.get(3));
+		// tag not sent downstream
+		assertNull(rows[4][1]);
+	}
+
+	@Test
+	public void testBoundedRing() throws KettleStepException {
+		ReorderBuffer rb = new ReorderBuffer(16, 1, output);
+		Object[][] rows = rows(100);
+		// wrap around the ring before holding rows
+		tagAll(rb, rows, 0, 10);
+		for (int i = 0; i < 10; i++) {
+			rb.release(rows[i]);
+		}
+		tagAll(rb, rows, 10, 26);
+		assertTrue(rb.isFull());
+		try {
+			rb.tag(rows[26]);
+			fail("ring is bounded");
+		} catch (KettleStepException e) {
+			// caller must flush first
+		}
+		for (int i = 25; i >= 10; i--) {
+			rb.release(rows[i]);
+		}
+		assertFalse(rb.isFull());
+		assertEquals(16, rb.getCapacity());
+		for (int i = 26; i < 100; i++) {
+			rows[i] = rb.tag(rows[i]);
+			rb.release(rows[i]);
+		}
+		assertEquals(100, out.size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals(i, out.get(i));
+		}
+	}
+
+	@Test
+	public void testSpareSlotUsed() throws KettleStepException {
+		ReorderBuffer rb = new ReorderBuffer(16, 1, output);
+		Object[] r = new Object[] {1, null, null};
+		assertSame(r, rb.tag(r));
+	}
+
+	@Test(expected = KettleStepException.class)
+	public void testReleasedTwice() throws KettleStepException {
+		ReorderBuffer rb = new ReorderBuffer(16, 1, output);
+		Object[] r = rb.tag(new Object[] {1});
+		rb.release(r);
+		rb.release(r);
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import java.math.BigDecimal;
+
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+/**
+ * Rough heap size of buffered rows, used to flush a buffer on a memory budget
+ * rather than on a number of rows (wide Sat vs narrow Link rows).
+ * <p>
+ * Fields of fixed width type (Integer, Number, Date..) are sized from their ValueMeta,
+ * others (String, Binary, BigNumber or fields stored as binary string) from their actual
+ * length.  Figures are those of a 64-bit JVM, an estimate only: not meant to be exact.
+ *
+ * @author mouellet
+ *
+ */
+public class RowSizeEstimator {
+	public static final int REF_BYTES = 8;
+	public static final int ARRAY_BYTES = 16;
+	public static final int STRING_BYTES = 40;
+	public static final int BOXED_BYTES = 16;
+	public static final int DATE_BYTES = 24;
+	public static final int TIMESTAMP_BYTES = 32;
+	public static final int BIGNUMBER_BYTES = 48;
+	//measure value (variable length)
+	private static final int VARIABLE = -1;
+
+	private final int[] fieldBytes;
+
+	public RowSizeEstimator(RowMetaInterface rowMeta) {
+		this(typesOf(rowMeta));
+	}
+
+	/**
+	 * @param types ValueMeta type of each field (TYPE_NONE when to be measured)
+	 */
+	RowSizeEstimator(int[] types) {
+		fieldBytes = new int[types.length];
+		for (int i = 0; i < types.length; i++) {
+			fieldBytes[i] = fixedBytes(types[i]);
+		}
+	}
+
+	private static int[] typesOf(RowMetaInterface rowMeta) {
+		int[] types = new int[rowMeta.size()];
+		for (int i = 0; i < types.length; i++) {
+			ValueMetaInterface v = rowMeta.getValueMeta(i);
+			//lazy conversion: values are byte[] until converted
+			types[i] = v.isStorageBinaryString() ? ValueMetaInterface.TYPE_NONE : v.getType();
+		}
+		return types;
+	}
+
+	private static int fixedBytes(int type) {
+		switch (type) {
+		case ValueMetaInterface.TYPE_INTEGER:
+		case ValueMetaInterface.TYPE_NUMBER:
+			return BOXED_BYTES;
+		case ValueMetaInterface.TYPE_DATE:
+			return DATE_BYTES;
+		case ValueMetaInterface.TYPE_TIMESTAMP:
+			return TIMESTAMP_BYTES;
+		case ValueMetaInterface.TYPE_BOOLEAN:
+			//Boolean.TRUE/FALSE are shared
+			return 0;
+		default:
+			return VARIABLE;
+		}
+	}
+
+	/**
+	 * @return estimated nb of bytes held by row (array and its values)
+	 */
+	public long estimate(Object[] row) {
+		long bytes = ARRAY_BYTES + (long) REF_BYTES * row.length;
+		for (int i = 0; i < row.length; i++) {
+			if (row[i] == null) {
+				continue;
+			}
+			int fixed = (i < fieldBytes.length) ? fieldBytes[i] : VARIABLE;
+			bytes += (fixed == VARIABLE) ? sizeOf(row[i]) : fixed;
+		}
+		return bytes;
+	}
+
+	/**
+	 * @return estimated nb of bytes of a single value
+	 */
+	public static long sizeOf(Object value) {
+		if (value == null || value instanceof Boolean) {
+			return 0;
+		} else if (value instanceof String) {
+			return STRING_BYTES + 2L * ((String) value).length();
+		} else if (value instanceof byte[]) {
+			return ARRAY_BYTES + ((byte[]) value).length;
+		} else if (value instanceof BigDecimal) {
+			return BIGNUMBER_BYTES + ((BigDecimal) value).unscaledValue().bitLength() / 8;
+		} else if (value instanceof java.sql.Timestamp) {
+			return TIMESTAMP_BYTES;
+		} else if (value instanceof java.util.Date) {
+			return DATE_BYTES;
+		} else {
+			return BOXED_BYTES;
+		}
+	}
+
+}
@@ -0,0 +1,66 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+public class RowSizeEstimatorTest {
+
+	private static final int[] TYPES = new int[] { ValueMetaInterface.TYPE_INTEGER, ValueMetaInterface.TYPE_DATE,
+			ValueMetaInterface.TYPE_STRING };
+
+	@Test
+	public void testFixedAndVariable() {
+		RowSizeEstimator e = new RowSizeEstimator(TYPES);
+		long narrow = e.estimate(new Object[] { new Long(1), new Date(), "ab" });
+		assertEquals(RowSizeEstimator.ARRAY_BYTES + 3 * RowSizeEstimator.REF_BYTES + RowSizeEstimator.BOXED_BYTES
+				+ RowSizeEstimator.DATE_BYTES + RowSizeEstimator.STRING_BYTES + 4, narrow);
+
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 10000; i++) {
+			text.append('x');
+		}
+		long wide = e.estimate(new Object[] { new Long(1), new Date(), text.toString() });
+		assertEquals(narrow + 2 * (10000 - 2), wide);
+	}
+
+	@Test
+	public void testNullsAndExtraFields() {
+		RowSizeEstimator e = new RowSizeEstimator(TYPES);
+		long empty = e.estimate(new Object[] { null, null, null });
+		assertEquals(RowSizeEstimator.ARRAY_BYTES + 3 * RowSizeEstimator.REF_BYTES, empty);
+		// fields appended after input ones (e.g. tech key) are measured
+		long appended = e.estimate(new Object[] { null, null, null, new Long(5), new byte[100] });
+		assertEquals(empty + 2 * RowSizeEstimator.REF_BYTES + RowSizeEstimator.BOXED_BYTES
+				+ RowSizeEstimator.ARRAY_BYTES + 100, appended);
+	}
+
+	@Test
+	public void testBinaryStorageMeasured() {
+		// lazy conversion: field typed Integer still holding its bytes
+		RowSizeEstimator e = new RowSizeEstimator(new int[] { ValueMetaInterface.TYPE_NONE });
+		assertTrue(e.estimate(new Object[] { new byte[1000] }) > 1000);
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+
+/**
+ * Sat records written by the step but possibly not yet visible to the
+ * history lookup (pipelined mode: lookup of next buffer runs on its own
+ * connection while current buffer is written and before it is committed).
+ * <p>
+ * For every FK, it keeps the records known after the last buffer written with
+ * this FK (history read from DB plus new records), tagged with the buffer sequence.
+ * These are merged into the history of any later buffer having same FK, so its
+ * lookup sees the previous buffers' writes.  Entries are purged once their buffer
+ * was committed before the lookup query started (DB then returns them).
+ *
+ * @author mouellet
+ *
+ */
+public class SatHistoryOverlay {
+
+	private static class Entry {
+		private final long seq;
+		private final List<SatRecord> recs = new ArrayList<SatRecord>();
+
+		private Entry(long seq) {
+			this.seq = seq;
+		}
+	}
+
+	private final Map<Long, Entry> byFk = new HashMap<Long, Entry>();
+	private int nbRecords;
+
+	/**
+	 * Keep persisted records of buffer (sorted by FK), replacing older ones with same FK
+	 *
+	 * @param hist history of buffer after write (non-persisted records are ignored)
+	 * @param seq buffer sequence
+	 */
+	public void addWritten(NavigableSet<SatRecord> hist, long seq) {
+		Entry current = null;
+		Long currentFk = null;
+		for (SatRecord rec : hist) {
+			if (!rec.isPersisted()) {
+				continue;
+			}
+			if (!rec.getTechkeyValue().equals(currentFk)) {
+				currentFk = rec.getTechkeyValue();
+				current = new Entry(seq);
+				Entry old = byFk.put(currentFk, current);
+				if (old != null) {
+					nbRecords -= old.recs.size();
+				}
+			}
+			current.recs.add(rec);
+			nbRecords++;
+		}
+	}
+
+	/**
+	 * Merge records of these FKs into history read from DB (DB version kept when both)
+	 *
+	 * @return number of records added
+	 */
+	public int applyTo(NavigableSet<SatRecord> hist, Collection<Long> fks) {
+		int n = 0;
+		for (Long fk : fks) {
+			Entry e = byFk.get(fk);
+			if (e != null) {
+				for (SatRecord rec : e.recs) {
+					if (hist.add(rec)) {
+						n++;
+					}
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Forget records of buffers visible in DB
+	 *
+	 * @param visibleSeq last buffer sequence committed before lookup started
+	 */
+	public void purge(long visibleSeq) {
+		Iterator<Entry> iter = byFk.values().iterator();
+		while (iter.hasNext()) {
+			Entry e = iter.next();
+			if (e.seq <= visibleSeq) {
+				nbRecords -= e.recs.size();
+				iter.remove();
+			}
+		}
+	}
+
+	public int size() {
+		return byFk.size();
+	}
+
+	/**
+	 * @return nb of records kept (all FKs), only purged once their buffer is committed
+	 */
+	public int getNbRecords() {
+		return nbRecords;
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class SatHistoryOverlayTest {
+
+	private SatRecord rec(long fk, long date, String att, boolean persisted) {
+		SatRecord r = new SatRecord(new Object[] {new Long(fk), new Date(date), att}, 0, 1);
+		if (persisted) {
+			r.setAsPersisted();
+		}
+		return r;
+	}
+
+	@Test
+	public void testSecondBufferSeesFirstWrites() {
+		SatHistoryOverlay overlay = new SatHistoryOverlay();
+		// buffer 1 wrote fk=1 (two records, one rejected) and fk=2
+		NavigableSet<SatRecord> written = new TreeSet<SatRecord>();
+		written.add(rec(1, 1000, "a", true));
+		written.add(rec(1, 2000, "b", true));
+		written.add(rec(1, 3000, "rejected", false));
+		written.add(rec(2, 1000, "x", true));
+		overlay.addWritten(written, 1);
+		assertEquals(2, overlay.size());
+
+		// buffer 2 on fk=1 and fk=3: lookup ran before buffer 1 committed
+		NavigableSet<SatRecord> hist = new TreeSet<SatRecord>();
+		hist.add(rec(3, 500, "z", true));
+		assertEquals(2, overlay.applyTo(hist, Arrays.asList(new Long(1), new Long(3))));
+		assertEquals(3, hist.size());
+		assertTrue(hist.contains(rec(1, 2000, "b", true)));
+
+		// already read from DB: not added twice
+		assertEquals(0, overlay.applyTo(hist, Arrays.asList(new Long(1))));
+	}
+
+	@Test
+	public void testReplaceAndPurge() {
+		SatHistoryOverlay overlay = new SatHistoryOverlay();
+		NavigableSet<SatRecord> b1 = new TreeSet<SatRecord>();
+		b1.add(rec(1, 1000, "a", true));
+		b1.add(rec(2, 1000, "x", true));
+		overlay.addWritten(b1, 1);
+
+		NavigableSet<SatRecord> b2 = new TreeSet<SatRecord>();
+		b2.add(rec(1, 1000, "a", true));
+		b2.add(rec(1, 2000, "b", true));
+		overlay.addWritten(b2, 2);
+		// fk=1 of buffer 1 replaced
+		assertEquals(3, overlay.getNbRecords());
+
+		// buffer 1 committed before lookup: only fk=1 (written by buffer 2) is kept
+		overlay.purge(1);
+		assertEquals(1, overlay.size());
+		assertEquals(2, overlay.getNbRecords());
+		NavigableSet<SatRecord> hist = new TreeSet<SatRecord>();
+		assertEquals(2, overlay.applyTo(hist, Arrays.asList(new Long(1), new Long(2))));
+
+		overlay.purge(2);
+		assertEquals(0, overlay.size());
+		assertEquals(0, overlay.getNbRecords());
+	}
+
+}
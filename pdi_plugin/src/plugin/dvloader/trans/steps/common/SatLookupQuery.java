@@ -0,0 +1,99 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import org.pentaho.di.core.Const;
+
+/**
+ * SQL of the Sat history lookup and position of its parameters, which depend on 
+ * the syntax used: FK of the IN-list and minimum "FromDate" of the buffer.
+ * <p>
+ * Identifiers given must already be quoted for the DB.
+ *
+ * @author mouellet
+ *
+ */
+public class SatLookupQuery {
+
+	private final String sql;
+	private final int fkParamIdx;
+	private final int[] minDateParamIdx;
+
+	private SatLookupQuery(String sql, int fkParamIdx, int[] minDateParamIdx) {
+		this.sql = sql;
+		this.fkParamIdx = fkParamIdx;
+		this.minDateParamIdx = minDateParamIdx;
+	}
+
+	/**
+	 * @param cols lookup columns, comma separated
+	 * @param table qualified Sat table
+	 * @param fkCol surrogate FK column
+	 * @param fromDateCol "FromDate" column (null for non-temporal Sat)
+	 * @param nbParams nb of FK in IN-list
+	 * @param windowFunction DB supports ROW_NUMBER() OVER (PARTITION BY ..)
+	 */
+	public static SatLookupQuery build(String cols, String table, String fkCol, String fromDateCol, 
+			int nbParams, boolean windowFunction) {
+		String p = "";
+		for (int j = 0; j < nbParams; j++) {
+			if (j < nbParams - 1) {
+				p += "?, ";
+			} else {
+				p += "? ) ";
+			}
+		}
+		String whereIn = "WHERE " + fkCol + " IN ( " + p;
+
+		if (fromDateCol == null) {
+			return new SatLookupQuery("SELECT " + cols + " FROM " + table + " Sat " + Const.CR + whereIn, 1, new int[0]);
+		}
+		if (windowFunction) {
+			String sql = "SELECT " + cols + " FROM ( " + Const.CR 
+					+ " SELECT " + cols + ", ROW_NUMBER() OVER (PARTITION BY " + fkCol
+					+ ", CASE WHEN " + fromDateCol + " < ? THEN 0 ELSE 1 END ORDER BY " + fromDateCol + " DESC) AS dv_rn " + Const.CR 
+					+ " FROM " + table + " " + whereIn + ") Sat " + Const.CR 
+					+ "WHERE dv_rn = 1 OR " + fromDateCol + " >= ?";
+			return new SatLookupQuery(sql, 2, new int[] { 1, nbParams + 2 });
+		}
+		String sql = "SELECT " + cols + " FROM " + table + " Sat " + Const.CR + whereIn 
+				+ Const.CR + " AND " + fromDateCol + " >= " 
+				+ " ( SELECT CASE WHEN max(" + fromDateCol + ") IS NOT NULL THEN max(" + fromDateCol
+				+ ") ELSE DATE '0001-01-01' END " + Const.CR + " FROM " + table + " WHERE "
+				+ fkCol + " = Sat." + fkCol + " AND " + fromDateCol + " < ? )";
+		return new SatLookupQuery(sql, 1, new int[] { nbParams + 1 });
+	}
+
+	public String getSql() {
+		return sql;
+	}
+
+	/**
+	 * @return parameter index of first FK (others follow)
+	 */
+	public int getFkParamIdx() {
+		return fkParamIdx;
+	}
+
+	/**
+	 * @return parameter index of every minimum "FromDate" (empty for non-temporal Sat)
+	 */
+	public int[] getMinDateParamIdx() {
+		return minDateParamIdx;
+	}
+
+}
@@ -0,0 +1,92 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SatLookupQueryTest {
+	private static final String COLS = "fk, from_date, att";
+
+	// line breaks and spacing ignored
+	private static String flat(String sql) {
+		return sql.replaceAll("\\s+", " ").trim();
+	}
+
+	private static int nbParams(String sql) {
+		return sql.length() - sql.replace("?", "").length();
+	}
+
+	/*
+	 * SQL preceding parameter at index (1-based), from previous parameter or start
+	 */
+	private static String beforeParam(String sql, int idx) {
+		int from = 0;
+		int pos = -1;
+		for (int i = 0; i < idx; i++) {
+			from = pos + 1;
+			pos = sql.indexOf('?', from);
+		}
+		return sql.substring(from, pos).trim();
+	}
+
+	@Test
+	public void testWindowFunction() {
+		SatLookupQuery q = SatLookupQuery.build(COLS, "dv.sat", "fk", "from_date", 3, true);
+		String sql = flat(q.getSql());
+		assertEquals("SELECT fk, from_date, att FROM ( SELECT fk, from_date, att, ROW_NUMBER() OVER "
+				+ "(PARTITION BY fk, CASE WHEN from_date < ? THEN 0 ELSE 1 END ORDER BY from_date DESC) AS dv_rn "
+				+ "FROM dv.sat WHERE fk IN ( ?, ?, ? ) ) Sat WHERE dv_rn = 1 OR from_date >= ?", sql);
+
+		assertEquals(5, nbParams(sql));
+		assertEquals(2, q.getFkParamIdx());
+		assertArrayEquals(new int[] { 1, 5 }, q.getMinDateParamIdx());
+		assertTrue(beforeParam(sql, 1).endsWith("from_date <"));
+		assertTrue(beforeParam(sql, 2).endsWith("fk IN ("));
+		assertEquals(",", beforeParam(sql, 4));
+		assertTrue(beforeParam(sql, 5).endsWith("from_date >="));
+	}
+
+	@Test
+	public void testCorrelatedSubquery() {
+		SatLookupQuery q = SatLookupQuery.build(COLS, "dv.sat", "fk", "from_date", 3, false);
+		String sql = flat(q.getSql());
+		assertEquals("SELECT fk, from_date, att FROM dv.sat Sat WHERE fk IN ( ?, ?, ? ) "
+				+ "AND from_date >= ( SELECT CASE WHEN max(from_date) IS NOT NULL THEN max(from_date) "
+				+ "ELSE DATE '0001-01-01' END FROM dv.sat WHERE fk = Sat.fk AND from_date < ? )", sql);
+
+		assertEquals(4, nbParams(sql));
+		assertEquals(1, q.getFkParamIdx());
+		assertArrayEquals(new int[] { 4 }, q.getMinDateParamIdx());
+		assertTrue(beforeParam(sql, 1).endsWith("fk IN ("));
+		assertTrue(beforeParam(sql, 4).endsWith("from_date <"));
+	}
+
+	@Test
+	public void testNonTemporal() {
+		// window function not used without "FromDate"
+		SatLookupQuery q = SatLookupQuery.build(COLS, "dv.sat", "fk", null, 2, true);
+		String sql = flat(q.getSql());
+		assertEquals("SELECT fk, from_date, att FROM dv.sat Sat WHERE fk IN ( ?, ? )", sql);
+		assertEquals(1, q.getFkParamIdx());
+		assertEquals(0, q.getMinDateParamIdx().length);
+	}
+
+}
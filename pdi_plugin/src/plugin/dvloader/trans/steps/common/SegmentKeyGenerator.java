@@ -0,0 +1,89 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+/**
+ * In-process generator of 64-bit tech keys needing no DB round-trip
+ * (segment/snowflake style).  Key is composed of:
+ * <pre>
+ *  | segment (33 bits) | generator id (10 bits) | counter (20 bits) |
+ * </pre>
+ * The segment high-water mark is persisted by the keys themselves: at start-up,
+ * segment is set above the segment of the current table max key, so keys are unique
+ * across restarts.  The generator id (step copy number) makes keys unique
+ * across step copies.  When counter is exhausted, generator moves on to the next
+ * segment (always disjoint from other generators thanks to their id).
+ * <p>
+ * Not thread-safe: one instance per step copy.
+ *
+ * @author mouellet
+ *
+ */
+public class SegmentKeyGenerator {
+	public static final int ID_BITS = 10;
+	public static final int COUNTER_BITS = 20;
+	public static final int MAX_ID = (1 << ID_BITS) - 1;
+	public static final long MAX_SEGMENT = (1L << (63 - ID_BITS - COUNTER_BITS)) - 1;
+
+	private static final int COUNTER_MAX = (1 << COUNTER_BITS) - 1;
+
+	private final int id;
+	private long segment;
+	private int counter;
+
+	/**
+	 * @param maxExistingKey current maximum key of target table (0 or less when empty)
+	 * @param id generator id, normally the step copy number (0..MAX_ID)
+	 */
+	public SegmentKeyGenerator(long maxExistingKey, int id) {
+		if (id < 0 || id > MAX_ID) {
+			throw new IllegalArgumentException("Generator id must be between 0 and " + MAX_ID + ": " + id);
+		}
+		this.id = id;
+		this.segment = (maxExistingKey <= 0) ? 1 : segmentOf(maxExistingKey) + 1;
+		checkSegment();
+		this.counter = 0;
+	}
+
+	public long nextKey() {
+		if (counter > COUNTER_MAX) {
+			segment++;
+			checkSegment();
+			counter = 0;
+		}
+		return (segment << (ID_BITS + COUNTER_BITS)) | ((long) id << COUNTER_BITS) | counter++;
+	}
+
+	public long getSegment() {
+		return segment;
+	}
+
+	public static long segmentOf(long key) {
+		return key >>> (ID_BITS + COUNTER_BITS);
+	}
+
+	public static int idOf(long key) {
+		return (int) ((key >>> COUNTER_BITS) & MAX_ID);
+	}
+
+	private void checkSegment() {
+		if (segment > MAX_SEGMENT) {
+			throw new IllegalStateException("No more segment available for key generation");
+		}
+	}
+
+}
@@ -0,0 +1,78 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SegmentKeyGeneratorTest {
+
+	@Test
+	public void testEmptyTable() {
+		SegmentKeyGenerator g = new SegmentKeyGenerator(0, 0);
+		assertEquals(1, g.getSegment());
+		long k = g.nextKey();
+		assertEquals(1, SegmentKeyGenerator.segmentOf(k));
+		assertEquals(0, SegmentKeyGenerator.idOf(k));
+		assertEquals(k + 1, g.nextKey());
+	}
+
+	@Test
+	public void testAboveExistingKeys() {
+		// keys from a sequence or previous run
+		SegmentKeyGenerator g = new SegmentKeyGenerator(12345, 3);
+		assertTrue(g.nextKey() > 12345);
+
+		SegmentKeyGenerator g1 = new SegmentKeyGenerator(0, 1);
+		long last = 0;
+		for (int i = 0; i < 10; i++) {
+			last = g1.nextKey();
+		}
+		// restart: new segment above last key persisted
+		SegmentKeyGenerator g2 = new SegmentKeyGenerator(last, 1);
+		assertEquals(SegmentKeyGenerator.segmentOf(last) + 1, g2.getSegment());
+		assertTrue(g2.nextKey() > last);
+	}
+
+	@Test
+	public void testUniqueAcrossCopiesAndSegments() {
+		int perSegment = 1 << SegmentKeyGenerator.COUNTER_BITS;
+		Set<Long> keys = new HashSet<Long>();
+		SegmentKeyGenerator g0 = new SegmentKeyGenerator(0, 0);
+		SegmentKeyGenerator g1 = new SegmentKeyGenerator(0, 1);
+		// g0 overflows into next segment, still disjoint from g1
+		for (int i = 0; i < perSegment + 10; i++) {
+			assertTrue(keys.add(g0.nextKey()));
+		}
+		assertEquals(2, g0.getSegment());
+		for (int i = 0; i < perSegment + 10; i++) {
+			assertTrue(keys.add(g1.nextKey()));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidId() {
+		new SegmentKeyGenerator(0, SegmentKeyGenerator.MAX_ID + 1);
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.pentaho.di.core.exception.KettleFileException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.row.RowDataUtil;
+import org.pentaho.di.core.row.RowMetaInterface;
+
+/**
+ * Rows held before being sent downstream (e.g. until their keys are committed),
+ * kept in memory up to a size threshold then spilled to a local temp file.
+ * Spilled rows are written with the binary serialization of their RowMeta and
+ * streamed back in the same order when drained.  An optional Integer slot past 
+ * the RowMeta (e.g. the ReorderBuffer tag) is written along with the row.
+ * <p>
+ * Drained rows read from file are new instances (not the ones added).
+ * Not thread-safe.
+ *
+ * @author mouellet
+ *
+ */
+public class SpillableRowList {
+	private static final int IO_BUFFER = 64 * 1024;
+
+	public interface Output {
+		void put(Object[] row) throws KettleStepException;
+	}
+
+	private final RowMetaInterface rowMeta;
+	private final long maxBytes;
+	// Integer slot past rowMeta kept with spilled rows (-1= none)
+	private final int tagIdx;
+	private final RowSizeEstimator estimator;
+	private final List<Object[]> rows = new ArrayList<Object[]>();
+	private long bytes;
+
+	private File spillFile;
+	private DataOutputStream spillOut;
+	private int nbSpilled;
+	private long totalSpilled;
+
+	/**
+	 * @param rowMeta layout of rows added
+	 * @param maxBytes estimated size of rows kept in memory before spilling (0= never spill)
+	 */
+	public SpillableRowList(RowMetaInterface rowMeta, long maxBytes) {
+		this(rowMeta, maxBytes, -1);
+	}
+
+	/**
+	 * @param tagIdx index of an Integer slot past rowMeta also spilled (-1= none)
+	 */
+	public SpillableRowList(RowMetaInterface rowMeta, long maxBytes, int tagIdx) {
+		this.rowMeta = rowMeta;
+		this.maxBytes = maxBytes;
+		this.tagIdx = tagIdx;
+		this.estimator = (maxBytes > 0) ? new RowSizeEstimator(rowMeta) : null;
+	}
+
+	public void add(Object[] row) throws KettleStepException {
+		if (estimator == null) {
+			rows.add(row);
+			return;
+		}
+		//once spilling, all rows go to file to keep their order
+		if (spillOut == null && bytes < maxBytes) {
+			rows.add(row);
+			bytes += estimator.estimate(row);
+			return;
+		}
+		try {
+			if (spillOut == null) {
+				spillFile = File.createTempFile("dvload", ".spill");
+				spillFile.deleteOnExit();
+				spillOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile), IO_BUFFER));
+			}
+			rowMeta.writeData(spillOut, row);
+			if (tagIdx >= 0) {
+				Object tag = (row.length > tagIdx) ? row[tagIdx] : null;
+				spillOut.writeInt((tag == null) ? -1 : ((Integer) tag).intValue());
+			}
+			nbSpilled++;
+			totalSpilled++;
+		} catch (IOException e) {
+			throw new KettleStepException("Unable to spill row to temp file: " + spillFile, e);
+		} catch (KettleFileException e) {
+			throw new KettleStepException("Unable to spill row to temp file: " + spillFile, e);
+		}
+	}
+
+	/**
+	 * Send all rows to output in the order they were added, and empty the list
+	 */
+	public void drain(Output output) throws KettleStepException {
+		for (Object[] r : rows) {
+			output.put(r);
+		}
+		rows.clear();
+		bytes = 0;
+		if (spillOut == null) {
+			return;
+		}
+		try {
+			spillOut.close();
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile), IO_BUFFER));
+			try {
+				for (int i = 0; i < nbSpilled; i++) {
+					Object[] row = rowMeta.readData(in);
+					if (tagIdx >= 0) {
+						int tag = in.readInt();
+						if (tag >= 0) {
+							row = RowDataUtil.resizeArray(row, tagIdx + 1);
+							row[tagIdx] = Integer.valueOf(tag);
+						}
+					}
+					output.put(row);
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new KettleStepException("Unable to read spilled rows from temp file: " + spillFile, e);
+		} catch (KettleFileException e) {
+			throw new KettleStepException("Unable to read spilled rows from temp file: " + spillFile, e);
+		} finally {
+			close();
+		}
+	}
+
+	/**
+	 * Discard spilled rows and delete temp file
+	 */
+	public void close() {
+		if (spillOut != null) {
+			try {
+				spillOut.close();
+			} catch (IOException e) {
+				//deleted anyway
+			}
+			spillOut = null;
+		}
+		if (spillFile != null) {
+			spillFile.delete();
+			spillFile = null;
+		}
+		nbSpilled = 0;
+	}
+
+	public int size() {
+		return rows.size() + nbSpilled;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	/**
+	 * @return nb of rows spilled to file so far (all drains)
+	 */
+	public long getTotalSpilled() {
+		return totalSpilled;
+	}
+
+}
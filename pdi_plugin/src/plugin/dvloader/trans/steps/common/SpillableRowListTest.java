@@ -0,0 +1,119 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+public class SpillableRowListTest {
+
+	private final List<Object[]> drained = new ArrayList<Object[]>();
+	private final SpillableRowList.Output output = new SpillableRowList.Output() {
+		public void put(Object[] row) throws KettleStepException {
+			drained.add(row);
+		}
+	};
+
+	private RowMetaInterface rowMeta() {
+		RowMetaInterface rowMeta = new RowMeta();
+		rowMeta.addValueMeta(new ValueMetaString("bk"));
+		rowMeta.addValueMeta(new ValueMetaInteger("key"));
+		return rowMeta;
+	}
+
+	@Test
+	public void testSpillAndDrainInOrder() throws KettleStepException {
+		// about 3 rows fit in memory
+		SpillableRowList held = new SpillableRowList(rowMeta(), 200);
+		for (int i = 0; i < 1000; i++) {
+			held.add(new Object[] { "bk" + i, (i % 10 == 0) ? null : new Long(i) });
+		}
+		assertEquals(1000, held.size());
+		assertTrue(held.getTotalSpilled() > 900);
+
+		held.drain(output);
+		assertTrue(held.isEmpty());
+		assertEquals(1000, drained.size());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("bk" + i, drained.get(i)[0]);
+		}
+		assertNull(drained.get(10)[1]);
+		assertEquals(new Long(11), drained.get(11)[1]);
+
+		// list is reusable after drain
+		drained.clear();
+		held.add(new Object[] { "again", new Long(1) });
+		held.drain(output);
+		assertEquals(1, drained.size());
+		held.close();
+	}
+
+	@Test
+	public void testNeverSpill() throws KettleStepException {
+		SpillableRowList held = new SpillableRowList(rowMeta(), 0);
+		for (int i = 0; i < 100; i++) {
+			held.add(new Object[] { "bk" + i, new Long(i) });
+		}
+		assertEquals(0, held.getTotalSpilled());
+		held.drain(output);
+		assertEquals(100, drained.size());
+	}
+
+	@Test
+	public void testSpilledTagReleasedInOrder() throws KettleStepException {
+		RowMetaInterface rowMeta = rowMeta();
+		final List<Object[]> released = new ArrayList<Object[]>();
+		final ReorderBuffer reorder = new ReorderBuffer(100, rowMeta.size(), new ReorderBuffer.Output() {
+			public void put(Object[] row) throws KettleStepException {
+				released.add(row);
+			}
+		});
+		SpillableRowList held = new SpillableRowList(rowMeta, 200, rowMeta.size());
+		Object[] first = reorder.tag(new Object[] { "bk0", new Long(0) });
+		for (int i = 1; i < 50; i++) {
+			held.add(reorder.tag(new Object[] { "bk" + i, new Long(i) }));
+		}
+		assertTrue(held.getTotalSpilled() > 40);
+
+		// spilled rows read back with their tag, waiting for first row
+		held.drain(new SpillableRowList.Output() {
+			public void put(Object[] row) throws KettleStepException {
+				reorder.release(row);
+			}
+		});
+		assertTrue(released.isEmpty());
+		reorder.release(first);
+		assertEquals(50, released.size());
+		for (int i = 0; i < 50; i++) {
+			assertEquals("bk" + i, released.get(i)[0]);
+			assertNull(released.get(i)[rowMeta.size()]);
+		}
+	}
+
+}
@@ -0,0 +1,228 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.pentaho.di.core.exception.KettleException;
+
+/**
+ * Run a stage of the step on its own thread, so the step thread keeps filling
+ * the next buffer (fill stage) and emitting results (emit stage) while the
+ * worker stage waits on DB.
+ * <pre>
+ *   step thread: fill --> [hand-off queue (depth)] --> worker: stage --> [completed] --> step thread: emit
+ * </pre>
+ * Items are processed one at a time in submission order by a single worker, so
+ * ordering and key-consistency are the same as running stages serially.
+ * <p>
+ * Step thread never blocks without draining completed results, so a slow emitter
+ * cannot dead-lock the worker.  Failure of the worker is re-thrown on step thread.
+ * Worker is a virtual thread when JVM supports it (see IoExecutors).
+ * <p>
+ * Number of items in-flight (submitted but not yet emitted) can be further limited 
+ * at any time, e.g. by AimdController.
+ *
+ * @author mouellet
+ *
+ */
+public class StagePipeline<I, O> {
+
+	public interface Stage<I, O> {
+		O process(I item) throws Exception;
+	}
+
+	public interface Emitter<O> {
+		void emit(O result) throws KettleException;
+	}
+
+	private static final Object END = new Object();
+	private static final long WAIT_MS = 50;
+
+	private final Stage<I, O> stage;
+	private final BlockingQueue<Object> handOff;
+	private final Queue<O> completed = new ConcurrentLinkedQueue<O>();
+	private final Thread worker;
+	private volatile Throwable failure;
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private volatile int maxInFlight = Integer.MAX_VALUE;
+
+	/**
+	 * @param name of worker thread
+	 * @param depth max number of items waiting in hand-off queue (at least 1)
+	 * @param stage processing done by the worker
+	 */
+	public StagePipeline(String name, int depth, Stage<I, O> stage) {
+		this.stage = stage;
+		this.handOff = new ArrayBlockingQueue<Object>(Math.max(1, depth));
+		this.worker = IoExecutors.newThread(name, new Runnable() {
+			public void run() {
+				work();
+			}
+		});
+	}
+
+	public void start() {
+		worker.start();
+	}
+
+	@SuppressWarnings("unchecked")
+	private void work() {
+		try {
+			while (true) {
+				Object item = handOff.take();
+				if (item == END) {
+					return;
+				}
+				completed.add(stage.process((I) item));
+				synchronized (completed) {
+					completed.notifyAll();
+				}
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		} catch (Throwable t) {
+			failure = t;
+		}
+	}
+
+	/**
+	 * Hand-off item to worker, waiting while queue is full (completed results
+	 * are emitted meanwhile).
+	 */
+	public void submit(I item, Emitter<O> emitter) throws KettleException {
+		offer(item, emitter);
+	}
+
+	private void offer(Object item, Emitter<O> emitter) throws KettleException {
+		try {
+			while (true) {
+				checkFailure();
+				emitCompleted(emitter);
+				if (!worker.isAlive() && item != END) {
+					throw new KettleException("Pipeline stage " + worker.getName() + " is not running");
+				}
+				if (item != END && inFlight.get() >= maxInFlight) {
+					awaitCompleted();
+				} else if (handOff.offer(item, WAIT_MS, TimeUnit.MILLISECONDS)) {
+					break;
+				}
+			}
+			if (item != END) {
+				inFlight.incrementAndGet();
+			}
+		} catch (InterruptedException e) {
+			throw new KettleException(e);
+		}
+	}
+
+	private void awaitCompleted() throws InterruptedException {
+		synchronized (completed) {
+			if (completed.isEmpty()) {
+				completed.wait(WAIT_MS);
+			}
+		}
+	}
+
+	/**
+	 * Emit results completed so far (non-blocking)
+	 */
+	public void emitCompleted(Emitter<O> emitter) throws KettleException {
+		O result;
+		while ((result = completed.poll()) != null) {
+			inFlight.decrementAndGet();
+			emitter.emit(result);
+		}
+		checkFailure();
+	}
+
+	/**
+	 * Wait for all submitted items to be processed and emitted (worker keeps running)
+	 */
+	public void awaitIdle(Emitter<O> emitter) throws KettleException {
+		try {
+			while (true) {
+				emitCompleted(emitter);
+				if (inFlight.get() == 0) {
+					return;
+				}
+				if (!worker.isAlive()) {
+					checkFailure();
+					throw new KettleException("Pipeline stage " + worker.getName() + " is not running");
+				}
+				awaitCompleted();
+			}
+		} catch (InterruptedException e) {
+			throw new KettleException(e);
+		}
+	}
+
+	/**
+	 * Wait for all submitted items to be processed and emitted, then stop the worker
+	 */
+	public void finish(Emitter<O> emitter) throws KettleException {
+		offer(END, emitter);
+		try {
+			while (worker.isAlive()) {
+				worker.join(WAIT_MS);
+				emitCompleted(emitter);
+			}
+		} catch (InterruptedException e) {
+			throw new KettleException(e);
+		}
+		emitCompleted(emitter);
+	}
+
+	/**
+	 * Abort the worker (e.g. step stopped or failed)
+	 */
+	public void stop() {
+		handOff.clear();
+		worker.interrupt();
+		try {
+			worker.join(WAIT_MS * 20);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Limit number of items submitted but not yet emitted (at least 1)
+	 */
+	public void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = Math.max(1, maxInFlight);
+	}
+
+	public int getInFlight() {
+		return inFlight.get();
+	}
+
+	private void checkFailure() throws KettleException {
+		if (failure != null) {
+			if (failure instanceof KettleException) {
+				throw (KettleException) failure;
+			}
+			throw new KettleException("Pipeline stage " + worker.getName() + " failed", failure);
+		}
+	}
+
+}
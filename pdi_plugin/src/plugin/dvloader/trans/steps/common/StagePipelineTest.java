@@ -0,0 +1,134 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+
+public class StagePipelineTest {
+
+	private final List<Integer> emitted = new ArrayList<Integer>();
+
+	private final StagePipeline.Emitter<Integer> emitter = new StagePipeline.Emitter<Integer>() {
+		public void emit(Integer result) {
+			emitted.add(result);
+		}
+	};
+
+	@Test
+	public void testOrderPreserved() throws KettleException {
+		StagePipeline<Integer, Integer> p = new StagePipeline<Integer, Integer>("test", 2,
+				new StagePipeline.Stage<Integer, Integer>() {
+					public Integer process(Integer item) throws Exception {
+						Thread.sleep(item % 3);
+						return item * 10;
+					}
+				});
+		p.start();
+		for (int i = 0; i < 50; i++) {
+			p.submit(i, emitter);
+		}
+		p.finish(emitter);
+		assertEquals(50, emitted.size());
+		for (int i = 0; i < 50; i++) {
+			assertEquals(i * 10, emitted.get(i).intValue());
+		}
+	}
+
+	@Test
+	public void testAwaitIdle() throws KettleException {
+		StagePipeline<Integer, Integer> p = new StagePipeline<Integer, Integer>("test", 4,
+				new StagePipeline.Stage<Integer, Integer>() {
+					public Integer process(Integer item) throws Exception {
+						Thread.sleep(2);
+						return item;
+					}
+				});
+		p.start();
+		for (int i = 0; i < 5; i++) {
+			p.submit(i, emitter);
+		}
+		p.awaitIdle(emitter);
+		assertEquals(5, emitted.size());
+		assertEquals(0, p.getInFlight());
+		// worker still running
+		p.submit(5, emitter);
+		p.finish(emitter);
+		assertEquals(6, emitted.size());
+	}
+
+	@Test
+	public void testInFlightLimited() throws KettleException {
+		final int[] maxSeen = new int[1];
+		final StagePipeline<Integer, Integer> p = new StagePipeline<Integer, Integer>("test", 10,
+				new StagePipeline.Stage<Integer, Integer>() {
+					public Integer process(Integer item) throws Exception {
+						Thread.sleep(1);
+						return item;
+					}
+				});
+		StagePipeline.Emitter<Integer> counting = new StagePipeline.Emitter<Integer>() {
+			public void emit(Integer result) {
+				emitted.add(result);
+			}
+		};
+		p.setMaxInFlight(2);
+		p.start();
+		for (int i = 0; i < 30; i++) {
+			p.submit(i, counting);
+			maxSeen[0] = Math.max(maxSeen[0], p.getInFlight());
+		}
+		p.finish(counting);
+		assertEquals(30, emitted.size());
+		assertTrue(maxSeen[0] <= 2);
+		assertEquals(0, p.getInFlight());
+	}
+
+	@Test
+	public void testFailureRethrown() {
+		StagePipeline<Integer, Integer> p = new StagePipeline<Integer, Integer>("test", 1,
+				new StagePipeline.Stage<Integer, Integer>() {
+					public Integer process(Integer item) throws Exception {
+						if (item == 3) {
+							throw new IllegalStateException("boom");
+						}
+						return item;
+					}
+				});
+		p.start();
+		boolean failed = false;
+		try {
+			for (int i = 0; i < 100; i++) {
+				p.submit(i, emitter);
+			}
+			p.finish(emitter);
+		} catch (KettleException e) {
+			failed = true;
+		}
+		assertTrue(failed);
+		// nothing emitted after failing item
+		assertTrue(emitted.size() <= 3);
+	}
+
+}
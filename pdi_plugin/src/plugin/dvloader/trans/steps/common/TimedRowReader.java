@@ -0,0 +1,181 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.trans.step.BaseStep;
+
+/**
+ * Read input rows on own thread, so the step can wait for a row with a timeout 
+ * (getRow() blocks until a row arrives or input is done).  Used to flush a partial 
+ * buffer when input trickles in: next() waits at most until the buffer 
+ * holding rows for the max latency must be flushed.
+ * <p>
+ * Rows are handed over in input order through a bounded queue.  Failure of the 
+ * reader is re-thrown on step thread.
+ *
+ * @author mouellet
+ *
+ */
+public class TimedRowReader {
+
+	public interface Source {
+		/**
+		 * @return next row, null when input is done
+		 */
+		Object[] getRow() throws KettleException;
+	}
+
+	/** Returned by poll() when no row arrived within timeout */
+	public static final Object[] TIMEOUT = new Object[0];
+	private static final Object[] END = new Object[0];
+
+	private final Source source;
+	private final BlockingQueue<Object[]> rows;
+	private final Thread reader;
+	private volatile Throwable failure;
+	private boolean ended;
+
+	private final long flushAfterMs;
+	// time first row of current buffer was returned (-1 when buffer is empty)
+	private long bufferStartMs = -1;
+	private long lastReturnedMs;
+
+	/**
+	 * @param name of reader thread
+	 * @param source of rows (step getRow())
+	 * @param capacity max rows read ahead
+	 */
+	public TimedRowReader(String name, Source source, int capacity) {
+		this(name, source, capacity, 0);
+	}
+
+	/**
+	 * @param flushAfterMs max latency of a buffered row (used by next())
+	 */
+	public TimedRowReader(String name, Source source, int capacity, long flushAfterMs) {
+		this.flushAfterMs = flushAfterMs;
+		this.source = source;
+		this.rows = new ArrayBlockingQueue<Object[]>(Math.max(1, capacity));
+		this.reader = IoExecutors.newThread(name, new Runnable() {
+			public void run() {
+				read();
+			}
+		});
+	}
+
+	/**
+	 * Started reader of step input rows
+	 */
+	public static TimedRowReader startFor(final BaseStep step, int capacity, long flushAfterMs) {
+		TimedRowReader r = new TimedRowReader(step.getStepname() + "." + step.getCopy() + " reader", new Source() {
+			public Object[] getRow() throws KettleException {
+				return step.getRow();
+			}
+		}, capacity, flushAfterMs);
+		r.start();
+		return r;
+	}
+
+	public void start() {
+		reader.start();
+	}
+
+	/**
+	 * Next row, waiting at most until the oldest buffered row reached the max latency 
+	 * 
+	 * @param nbBuffered nb of rows in step buffer (buffer start is the first row returned after it was empty) 
+	 * @return next row, null when input is done, TIMEOUT when buffer must be flushed (or nothing arrived)
+	 */
+	public Object[] next(int nbBuffered) throws KettleException {
+		long wait = flushAfterMs;
+		if (nbBuffered == 0) {
+			bufferStartMs = -1;
+		} else {
+			if (bufferStartMs < 0) {
+				bufferStartMs = lastReturnedMs;
+			}
+			wait = bufferStartMs + flushAfterMs - System.currentTimeMillis();
+		}
+		Object[] r = poll(wait);
+		if (r != TIMEOUT) {
+			lastReturnedMs = System.currentTimeMillis();
+		}
+		return r;
+	}
+
+	private void read() {
+		try {
+			Object[] r;
+			while ((r = source.getRow()) != null) {
+				rows.put(r);
+			}
+		} catch (InterruptedException e) {
+			// stopped
+			return;
+		} catch (Throwable t) {
+			failure = t;
+		}
+		try {
+			rows.put(END);
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	/**
+	 * @return next row, null when input is done, TIMEOUT when nothing arrived within timeout
+	 */
+	public Object[] poll(long timeoutMs) throws KettleException {
+		if (ended) {
+			return null;
+		}
+		Object[] r;
+		try {
+			r = rows.poll(Math.max(0, timeoutMs), TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			throw new KettleException(e);
+		}
+		if (r == null) {
+			return TIMEOUT;
+		}
+		if (r == END) {
+			ended = true;
+			if (failure != null) {
+				if (failure instanceof KettleException) {
+					throw (KettleException) failure;
+				}
+				throw new KettleException("Input reader " + reader.getName() + " failed", failure);
+			}
+			return null;
+		}
+		return r;
+	}
+
+	/**
+	 * Abort reader (e.g. step stopped or failed)
+	 */
+	public void stop() {
+		reader.interrupt();
+		rows.clear();
+	}
+
+}
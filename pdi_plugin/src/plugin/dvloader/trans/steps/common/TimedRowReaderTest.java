@@ -0,0 +1,94 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+
+public class TimedRowReaderTest {
+
+	// last row held back until test releases it (no timing assumption)
+	private final CountDownLatch lastRow = new CountDownLatch(1);
+
+	/*
+	 * Two rows, then a pause (trickle feed), then a last row 
+	 */
+	private final TimedRowReader.Source trickle = new TimedRowReader.Source() {
+		private int n = 0;
+
+		public Object[] getRow() throws KettleException {
+			n++;
+			if (n == 3) {
+				try {
+					lastRow.await();
+				} catch (InterruptedException e) {
+					throw new KettleException(e);
+				}
+			}
+			return (n <= 3) ? new Object[] {n} : null;
+		}
+	};
+
+	@Test
+	public void testTimeoutThenRows() throws KettleException {
+		TimedRowReader reader = new TimedRowReader("test", trickle, 10);
+		reader.start();
+		assertEquals(1, reader.poll(1000)[0]);
+		assertEquals(2, reader.poll(1000)[0]);
+		// nothing within 50ms: partial buffer can be flushed
+		assertTrue(reader.poll(50) == TimedRowReader.TIMEOUT);
+		lastRow.countDown();
+		assertEquals(3, reader.poll(5000)[0]);
+		assertNull(reader.poll(1000));
+		assertNull(reader.poll(1000));
+	}
+
+	@Test
+	public void testBufferDeadline() throws KettleException {
+		TimedRowReader reader = new TimedRowReader("test", trickle, 10, 100);
+		reader.start();
+		// row 1 not buffered (e.g. key found in cache), row 2 starts the buffer
+		assertEquals(1, reader.next(0)[0]);
+		assertEquals(2, reader.next(0)[0]);
+		// row 3 not arrived: buffer of 1 row must be flushed
+		assertTrue(reader.next(1) == TimedRowReader.TIMEOUT);
+		// flushed buffer: wait again up to max latency
+		assertTrue(reader.next(0) == TimedRowReader.TIMEOUT);
+		lastRow.countDown();
+		assertEquals(3, reader.poll(5000)[0]);
+		assertNull(reader.poll(5000));
+	}
+
+	@Test(expected = KettleException.class)
+	public void testFailureRethrown() throws KettleException {
+		TimedRowReader reader = new TimedRowReader("test", new TimedRowReader.Source() {
+			public Object[] getRow() throws KettleException {
+				throw new KettleException("boom");
+			}
+		}, 10);
+		reader.start();
+		reader.poll(5000);
+	}
+
+}
@@ -134,6 +134,12 @@ public class LoadLinkMeta extends BaseLoadMeta implements StepMetaInterface {
 		retval.append("  ").append(XMLHandler.addTagValue("techKeyCol", techKeyCol));
 		retval.append("  ").append(XMLHandler.addTagValue("keyGeneration", keyGeneration));
 		retval.append("  ").append(XMLHandler.addTagValue("sequenceName", sequenceName));
+		retval.append("  ").append(XMLHandler.addTagValue("prefetchSequence", prefetchSequence));
+		retval.append("  ").append(XMLHandler.addTagValue("initialLoad", initialLoad));
+		retval.append("  ").append(XMLHandler.addTagValue("partitionByKey", partitionByKey));
+		retval.append("  ").append(XMLHandler.addTagValue("sortNewKeys", sortNewKeys));
+		retval.append("  ").append(XMLHandler.addTagValue("keyCacheSize", keyCacheSize));
+		retval.append("  ").append(XMLHandler.addTagValue("spillAfterMB", spillAfterMB));
 		return base + retval.toString();
 	}
 	
@@ -150,6 +156,12 @@ public class LoadLinkMeta extends BaseLoadMeta implements StepMetaInterface {
 			techKeyCol = XMLHandler.getTagValue(stepnode, "techKeyCol");
 			keyGeneration = XMLHandler.getTagValue(stepnode, "keyGeneration");
 			sequenceName = XMLHandler.getTagValue(stepnode, "sequenceName");
+			prefetchSequence = "Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "prefetchSequence"));
+			initialLoad = "Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "initialLoad"));
+			partitionByKey = "Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "partitionByKey"));
+			sortNewKeys = "Y".equalsIgnoreCase(XMLHandler.getTagValue(stepnode, "sortNewKeys"));
+			setKeyCacheSize(Const.toInt(XMLHandler.getTagValue(stepnode, "keyCacheSize"), 0));
+			setSpillAfterMB(Const.toInt(XMLHandler.getTagValue(stepnode, "spillAfterMB"), 0));
 		} catch (Exception e) {
 			throw new KettleXMLException(BaseMessages.getString(PKG, "LoadLinkMeta.Exception.LoadStepInfo"), e);
 		}
@@ -162,6 +174,12 @@ public class LoadLinkMeta extends BaseLoadMeta implements StepMetaInterface {
 			techKeyCol = rep.getStepAttributeString(id_step, "techKeyCol");
 			keyGeneration = rep.getStepAttributeString(id_step, "keyGeneration");
 			sequenceName = rep.getStepAttributeString(id_step, "sequenceName");
+			prefetchSequence = rep.getStepAttributeBoolean(id_step, "prefetchSequence");
+			initialLoad = rep.getStepAttributeBoolean(id_step, "initialLoad");
+			partitionByKey = rep.getStepAttributeBoolean(id_step, "partitionByKey");
+			sortNewKeys = rep.getStepAttributeBoolean(id_step, "sortNewKeys");
+			setKeyCacheSize((int) rep.getStepAttributeInteger(id_step, "keyCacheSize"));
+			setSpillAfterMB((int) rep.getStepAttributeInteger(id_step, "spillAfterMB"));
 		} catch (Exception e) {
 			throw new KettleException(BaseMessages.getString(PKG,
 					"LoadLinkMeta.Exception.ErrorReadingLinkStepInfo"), e);
@@ -175,6 +193,12 @@ public class LoadLinkMeta extends BaseLoadMeta implements StepMetaInterface {
 			rep.saveStepAttribute(id_transformation, id_step, "techKeyCol", techKeyCol);
 			rep.saveStepAttribute(id_transformation, id_step, "keyGeneration", keyGeneration);
 			rep.saveStepAttribute(id_transformation, id_step, "sequenceName", sequenceName);
+			rep.saveStepAttribute(id_transformation, id_step, "prefetchSequence", prefetchSequence);
+			rep.saveStepAttribute(id_transformation, id_step, "initialLoad", initialLoad);
+			rep.saveStepAttribute(id_transformation, id_step, "partitionByKey", partitionByKey);
+			rep.saveStepAttribute(id_transformation, id_step, "sortNewKeys", sortNewKeys);
+			rep.saveStepAttribute(id_transformation, id_step, "keyCacheSize", keyCacheSize);
+			rep.saveStepAttribute(id_transformation, id_step, "spillAfterMB", spillAfterMB);
 			
 		} catch (Exception e) {
 			throw new KettleException(BaseMessages.getString(PKG, "LoadLinkMeta.Exception.UnableToSaveLinkStepInfo")
@@ -215,7 +239,8 @@ public class LoadLinkMeta extends BaseLoadMeta implements StepMetaInterface {
 		if (keyGeneration != null) {
 				if (!(BaseLoadMeta.CREATION_METHOD_AUTOINC.equals(keyGeneration)
 						|| BaseLoadMeta.CREATION_METHOD_SEQUENCE.equals(keyGeneration) 
-						|| BaseLoadMeta.CREATION_METHOD_TABLEMAX.equals(keyGeneration))) {
+						|| BaseLoadMeta.CREATION_METHOD_TABLEMAX.equals(keyGeneration)
+						|| BaseLoadMeta.CREATION_METHOD_SEGMENT.equals(keyGeneration))) {
 					error_message += BaseMessages.getString(PKG, "LoadMeta.CheckResult.ErrorSurrKeyCreation")
 							+ ": " + keyGeneration + "!";
 					cr = new CheckResult(CheckResultInterface.TYPE_RESULT_ERROR, error_message, stepMeta);
@@ -250,8 +275,8 @@ public class LoadLinkMeta extends BaseLoadMeta implements StepMetaInterface {
 				return retval;
 			}
 			
-			//Add explicit PK when using Sequence or Table-max generation
-			if (isMethodAutoIncrement() || keyGeneration.equals(CREATION_METHOD_SEQUENCE)){
+			//Add explicit PK when not already bound as parameter (autoinc or sequence nextval)
+			if (!isKeyAssignedByStep()){
 				data.getInsertRowMeta().addValueMeta(new ValueMetaInteger(techKeyCol));
 			}
 			String schemaTable = databaseMeta.getQuotedSchemaTableCombination( schemaName, targetTable);
@@ -19,6 +19,9 @@ package plugin.dvloader.trans.steps.loadsat;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
 
 import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.exception.KettleDatabaseException;
@@ -34,8 +37,17 @@ import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaInterface;
 
+import plugin.dvloader.trans.steps.common.AimdController;
 import plugin.dvloader.trans.steps.common.BaseLoadMeta;
+import plugin.dvloader.trans.steps.common.BatchBisector;
+import plugin.dvloader.trans.steps.common.BufferCompactor;
+import plugin.dvloader.trans.steps.common.BufferSizeTuner;
+import plugin.dvloader.trans.steps.common.IoExecutors;
+import plugin.dvloader.trans.steps.common.ReorderBuffer;
 import plugin.dvloader.trans.steps.common.SatRecord;
+import plugin.dvloader.trans.steps.common.StagePipeline;
+import plugin.dvloader.trans.steps.common.TimedRowReader;
+import plugin.dvloader.trans.steps.loadsat.LoadSatData.PipelinedBuffer;
 
 /**
  * 
@@ -57,6 +69,10 @@ import plugin.dvloader.trans.steps.common.SatRecord;
  * 
  * Again, as with Load Hub and Sat, the strategy here is then to favor <b>batch</b> over multi-threading.  
  * So "# of copies to start.." should be 1 for these Steps. 
+ * <p>
+ * With a pipeline depth > 0, history lookup of next buffer(s) runs on its own thread and connection 
+ * while current buffer is written.  That lookup cannot see writes not yet committed, so records 
+ * written for the same FK by previous buffers are merged into its history (see SatHistoryOverlay).
  *       
  * @author mouellet
  * 
@@ -66,6 +82,24 @@ public class LoadSat extends BaseStep implements StepInterface {
 	
 	private LoadSatData data;
 	private LoadSatMeta meta;
+	
+	//history lookup on its own thread (null when not pipelined)
+	private StagePipeline<PipelinedBuffer, PipelinedBuffer> pipeline;
+	//adapt buffer size and in-flight buffers to DB latency (null when static)
+	private AimdController adaptive;
+	//tune buffer size for max throughput ("auto" buffer size, null otherwise)
+	private BufferSizeTuner tuner;
+	//read input on own thread to flush partial buffer in time (null when not time-bounded)
+	private TimedRowReader reader;
+	//release rows in input order (null when order not preserved)
+	private ReorderBuffer reorder;
+	//per-buffer work lists, cleared and reused by every buffer (not their content)
+	private final List<SatRecord> newRecs = new ArrayList<SatRecord>();
+	private final List<Object> newToDates = new ArrayList<Object>();
+	private final List<SatRecord> updateRecs = new ArrayList<SatRecord>();
+	//new sat record following the existing one to update
+	private final List<SatRecord> updateNextRecs = new ArrayList<SatRecord>();
+	private final Object[] updateValues = new Object[3];
 
 	public LoadSat(StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr, TransMeta transMeta, Trans trans) {
 		super(stepMeta, stepDataInterface, copyNr, transMeta, trans);
@@ -76,9 +110,25 @@ public class LoadSat extends BaseStep implements StepInterface {
 	public boolean processRow(StepMetaInterface smi, StepDataInterface sdi) throws KettleException {
 
 		// request and wait for new row & indicate busy!
-		Object[] originalRow = getRow();
+		Object[] originalRow = readRow();
 		boolean bufferNotFull = true;
 
+		//nothing arrived in time: flush partial buffer (trickle feed)
+		if (originalRow == TimedRowReader.TIMEOUT) {
+			if (first) {
+				return true;
+			}
+			if (data.getBufferRows().size() == 0) {
+				releaseWhenIdle();
+				return true;
+			}
+			if (log.isDetailed()){
+				logDetailed("Flushing partial buffer of " + data.getBufferRows().size() + " rows after " 
+						+ meta.getFlushAfterMs() + " ms");
+			}
+			return (pipeline != null) ? pipelineBuffer() : processBuffer();
+		}
+
 		if (first) {
 			first = false;
 			if (originalRow != null){
@@ -91,7 +141,7 @@ public class LoadSat extends BaseStep implements StepInterface {
 
 		// Add current row to Buffer 
 		if (originalRow != null) {
-			//proceed with fields conversion when stored in BINARY
+			//proceed with conversion of compared fields stored in BINARY (meta-att stay lazy)
 			if (data.getFieldsInBinary() != null){
 				for (int i=0; i < data.getFieldsInBinary().length; i++){
 					int fi = data.getFieldsInBinary()[i];
@@ -100,14 +150,24 @@ public class LoadSat extends BaseStep implements StepInterface {
 				}
 			}
 
-			bufferNotFull = data.addToBufferRows(originalRow, meta.getBufferSize());
+			if (reorder != null) {
+				if (reorder.isFull()) {
+					flushForOrder();
+				}
+				originalRow = reorder.tag(originalRow);
+			}
+			bufferNotFull = data.addToBufferRows(originalRow, bufferSize());
 		}
 		// Done: no more rows to be expected...
 		else {
 			data.finishedAllRows = true;
+			if (pipeline != null) {
+				return pipelineBuffer();
+			}
 			// Exceptionally the buffer is empty, so done
 			// i.e. last processed row filled up buffer
 			if (data.getBufferRows().size() == 0) {
+				commitWhenDue(true);
 				setOutputDone();
 				return false;
 			}
@@ -122,55 +182,199 @@ public class LoadSat extends BaseStep implements StepInterface {
 		/*****
 		 * From here: buffer is either full OR partially full with no more rows expected
 		 *****/
+		if (pipeline != null) {
+			return pipelineBuffer();
+		}
+		return processBuffer();
+	}
+	
+	
+	private boolean processBuffer() throws KettleException {
 		
 		/***** step-1 --> Query DB and fill bufferSatHistRows  ******/
 
-		int nb = data.populateLookupMap(meta, meta.getBufferSize());
+		long start = System.currentTimeMillis();
+		int nbRows = data.getBufferRows().size();
+		int nb = data.populateLookupMap(meta, meta.getLookupParamsSize());
 		if (log.isDetailed()){
 			logDetailed("Buffer filled, number of fetched sat history records from DB= " + nb);	
 		}
 		
+		writeBuffer(data.getBufferRows(), data.getBufferSatHistRows(), data.finishedAllRows);
+		data.emptyBuffersAndClearPrepStmts();
+		adapt(System.currentTimeMillis() - start, nbRows);
+		
+		
+		/***** step-6 --> Continue processing or Exit if no more rows expected *****/
+		if (!data.finishedAllRows) {
+			return true;
+		} else {
+			setOutputDone();
+			return false;
+		}
+	}
+	
+	
+	/*
+	 * Next input row.  When buffer flush is time-bounded, returns TIMEOUT once the oldest 
+	 * buffered row waited the max latency (partial buffer must be flushed)   
+	 */
+	private Object[] readRow() throws KettleException {
+		if (meta.getFlushAfterMs() <= 0) {
+			return getRow();
+		}
+		if (reader == null) {
+			reader = TimedRowReader.startFor(this, meta.getBufferSize(), meta.getFlushAfterMs());
+		}
+		return reader.next(data.getBufferRows().size());
+	}
+	
+	
+	/*
+	 * Pipelined mode: history lookup of buffer runs on the lookup connection, while this 
+	 * thread writes previous buffers (emitted by pipeline in order) and fills next one   
+	 */
+	private boolean pipelineBuffer() throws KettleException {
+		if (data.getBufferRows().size() > 0) {
+			pipeline.submit(data.swapBufferRows(), writeStage);
+		}
+		if (!data.finishedAllRows) {
+			pipeline.emitCompleted(writeStage);
+			return true;
+		}
+		pipeline.finish(writeStage);
+		commitWhenDue(true);
+		setOutputDone();
+		return false;
+	}
+	
+	/*
+	 * Input is idle: write buffers whose lookup completed, and commit when due (e.g. policy in seconds)
+	 */
+	private void releaseWhenIdle() throws KettleException {
+		if (pipeline != null) {
+			pipeline.emitCompleted(writeStage);
+		}
+		commitWhenDue(false);
+	}
+	
+	/*
+	 * Reorder ring is full: write buffered rows so that all tagged rows are sent downstream
+	 */
+	private void flushForOrder() throws KettleException {
+		if (log.isDetailed()){
+			logDetailed("Reorder buffer full (" + reorder.getWaiting() + " rows waiting), flushing before due");
+		}
+		if (pipeline != null) {
+			if (data.getBufferRows().size() > 0) {
+				pipeline.submit(data.swapBufferRows(), writeStage);
+			}
+			pipeline.awaitIdle(writeStage);
+		} else if (data.getBufferRows().size() > 0) {
+			processBuffer();
+		}
+	}
+	
+	private final StagePipeline.Stage<PipelinedBuffer, PipelinedBuffer> lookupStage = new StagePipeline.Stage<PipelinedBuffer, PipelinedBuffer>() {
+		public PipelinedBuffer process(PipelinedBuffer buffer) throws Exception {
+			data.lookupPipelined(meta, buffer);
+			return buffer;
+		}
+	};
+	
+	private final StagePipeline.Emitter<PipelinedBuffer> writeStage = new StagePipeline.Emitter<PipelinedBuffer>() {
+		public void emit(PipelinedBuffer buffer) throws KettleException {
+			//lookup may have run before previous buffers were written/committed 
+			int nbOverlay = data.applyOverlay(buffer);
+			if (log.isDetailed()){
+				logDetailed("Buffer looked-up, number of sat history records= " + buffer.getHist().size() 
+						+ " (incl. not yet visible in DB= " + nbOverlay + ")");	
+			}
+			//final commit is done once pipeline is finished
+			long start = System.currentTimeMillis();
+			int nbRows = buffer.getRows().size();
+			writeBuffer(buffer.getRows(), buffer.getHist(), false);
+			data.clearPrepStmts();
+			adapt(buffer.getLookupMs() + System.currentTimeMillis() - start, nbRows);
+		}
+	};
+	
+	
+	/*
+	 * Feed latency of buffer just processed to adaptive controller (when used) 
+	 */
+	private void adapt(long elapsed, int nbRows) {
+		if (tuner != null){
+			if (tuner.onCycle(nbRows, elapsed) && log.isDetailed()){
+				logDetailed("Buffer of " + nbRows + " rows processed in " + elapsed + " ms, tuned to " + tuner);
+			}
+			return;
+		}
+		if (adaptive == null){
+			return;
+		}
+		if (adaptive.onCycle(elapsed)){
+			if (pipeline != null){
+				pipeline.setMaxInFlight(adaptive.getInFlight());
+			}
+			if (log.isDetailed()){
+				logDetailed("Buffer processed in " + elapsed + " ms, adapted to " + adaptive);
+			}
+		}
+	}
+	
+	private int bufferSize() {
+		if (tuner != null){
+			return tuner.getBufferSize();
+		}
+		return (adaptive == null) ? meta.getBufferSize() : adaptive.getBufferSize();
+	}
+	
+	
+	/*
+	 * Merge buffer rows into their history, then insert/update and commit when due 
+	 */
+	private void writeBuffer(List<Object[]> bufferRows, NavigableSet<SatRecord> bufferSatHistRows, 
+			boolean endOfInput) throws KettleException {
+		long seq = data.nextWriteSeq();
+		
 		/***** step-2 --> Add new records into bufferSatHistRows, ignore/send downstream duplicates ******
 		 *******          (guarantees sorting needed for Idempotent & for updating "toDate")        ******/
-		Iterator<Object[]> iter = data.getBufferRows().iterator();
-		while (iter.hasNext()) {
-			Object[] bufferRow = iter.next();
-			SatRecord newRow = new SatRecord(bufferRow,data.getSatAttsRowIdx(),
-											data.posFkInRow,data.posFromDateInRow);
-			
-			if (!data.getBufferSatHistRows().add(newRow)){
-				//ignore duplicate (e.g. dups in-stream, immutable attr..)
-				putRow(data.outputRowMeta, bufferRow);
-				iter.remove();
-			} else {
+		final NavigableSet<SatRecord> hist = bufferSatHistRows;
+		BufferCompactor.compact(bufferRows, new BufferCompactor.Resolver<Object[]>() {
+			public boolean resolve(Object[] bufferRow) throws KettleStepException {
+				SatRecord newRow = new SatRecord(bufferRow,data.getSatAttsRowIdx(),
+												data.posFkInRow,data.posFromDateInRow);
+				
+				if (!hist.add(newRow)){
+					//ignore duplicate (e.g. dups in-stream, immutable attr..)
+					output(bufferRow);
+					return true;
+				}
 				//attach any meta-attributes for new sat record
 				if (data.getSatMetaAttsRowIdx() != null){
 					newRow.setMetaAtts(bufferRow,data.getSatMetaAttsRowIdx());
 				}
-			}
-		}
-		// Exit if all buffer rows were duplicates 
-		if (data.getBufferRows().size() == 0) {
-			data.emptyBuffersAndClearPrepStmts();
-			if (!data.finishedAllRows) {
-				return true;
-			} else {
-				setOutputDone();
 				return false;
 			}
+		});
+		// Exit if all buffer rows were duplicates 
+		if (bufferRows.size() == 0) {
+			commitWhenDue(endOfInput);
+			return;
 		}
 
 		
 		
 		/***** step-3 --> When Idempotent remove new duplicates record ******/
 		if (meta.isIdempotent()) {
-			Iterator<SatRecord> iterSat = data.getBufferSatHistRows().iterator();
+			Iterator<SatRecord> iterSat = bufferSatHistRows.iterator();
 			while (iterSat.hasNext()) {
 			    SatRecord satRow = iterSat.next();
 			    if (satRow.isPersisted()){
 			    	continue;
 			    }
-			    SatRecord prevRow = data.getBufferSatHistRows().lower(satRow);
+			    SatRecord prevRow = bufferSatHistRows.lower(satRow);
 			    
 				if ((prevRow != null) && !(prevRow.getTechkeyValue().equals(satRow.getTechkeyValue()))) {
 					prevRow =  null;
@@ -183,7 +387,7 @@ public class LoadSat extends BaseStep implements StepInterface {
 					} 
 				} else {
 				//satRow is very 1st record
-					SatRecord nextRow = data.getBufferSatHistRows().higher(satRow); 
+					SatRecord nextRow = bufferSatHistRows.higher(satRow); 
 					//Exceptionally there was previously a first record with same value!!
 					// At this point, cannot "rebuild the past" so keep the original 1st record 
 					if (nextRow != null && nextRow.equalsNoCheckOnDate(satRow)) {
@@ -196,15 +400,18 @@ public class LoadSat extends BaseStep implements StepInterface {
 
 		/***** step-4 --> Prepare Batch insert & Set ToDate if needed ******/
 		//JDBC may not support simultaneous addBatch() on different prepareStmt 
-		//so we store params for sat updates
-		List<Object[]> updateParams = null;
-		if (meta.isToDateColumnUsed()) {
-			updateParams = new ArrayList<Object[]>();
-		}
-		int insertCtn = 0;
+		//so we store existing records to update, bound once inserts are executed
+		//(lists are reused by every buffer)
+		updateRecs.clear();
+		updateNextRecs.clear();
+		newRecs.clear();
+		newToDates.clear();
+		//inserts are executed by batches of insert batch size (recovery mode binds them itself) 
+		int batchSize = meta.getInsertBatchSize(bufferSatHistRows.size());
+		int nbBound = 0;
 		
-		for (SatRecord rec : data.getBufferSatHistRows()){
-			SatRecord nextRec = data.getBufferSatHistRows().higher(rec);
+		for (SatRecord rec : bufferSatHistRows){
+			SatRecord nextRec = bufferSatHistRows.higher(rec);
 			if (nextRec != null && !nextRec.getTechkeyValue().equals(rec.getTechkeyValue())){
 				nextRec = null;
 			}
@@ -215,53 +422,146 @@ public class LoadSat extends BaseStep implements StepInterface {
 					optToDate = (nextRec == null) ? data.toDateMaxFlag : 
 						nextRec.getValues()[data.posFromDate];	
 				}
-				data.addBatchInsert(meta, rec, optToDate);
-				insertCtn++;
-				incrementLinesOutput();
+				if (!data.isBatchRecovery()){
+					data.addBatchInsert(meta, rec, optToDate);
+					if (++nbBound == batchSize){
+						data.executeBatch(data.getPrepStmtInsertSat(), nbBound);
+						nbBound = 0;
+					}
+				}
+				newRecs.add(rec);
+				newToDates.add(optToDate);
 			} else {
 			//for existing record followed by a new one, add param to update (when needed)
 				if (meta.isToDateColumnUsed() && nextRec != null && !nextRec.isPersisted()){
-					updateParams.add(new Object[]{nextRec.getValues()[data.posFromDate] 
-							,rec.getTechkeyValue()
-							,rec.getValues()[data.posFromDate] });
+					updateRecs.add(rec);
+					updateNextRecs.add(nextRec);
 				}
 			}
 		}
+		if (nbBound > 0){
+			data.executeBatch(data.getPrepStmtInsertSat(), nbBound);
+		}
+		int insertCtn = newRecs.size();
 		
 
-		/***** step-5 --> Complete Stmt batch, commit and send rows ....   *****/
+		/***** step-5 --> Complete Stmt batch, commit when due and send rows ....   *****/
+		int updateCtn = 0;
+		// sat records rejected by DB (recovery mode only) with their error
+		NavigableMap<SatRecord, String> rejectCauses = null;
 		if (insertCtn > 0){
-			//sat rows have "toDate" and require updates
-			boolean requireUpdate = (updateParams != null && updateParams.size() > 0); 
-			
-			//execute Batch insert for all new Rows
-			data.executeBatch(data.getPrepStmtInsertSat(),insertCtn);
+			//Batch insert of new Rows (already executed in normal mode)
+			if (data.isBatchRecovery()){
+				BatchBisector bisector = data.executeBatchInsertWithRecovery(meta, newRecs, newToDates);
+				if (bisector.getRejected().size() > 0){
+					rejectCauses = new TreeMap<SatRecord, String>();
+					for (int i = 0; i < bisector.getRejected().size(); i++){
+						rejectCauses.put(newRecs.get(bisector.getRejected().get(i)), 
+								bisector.getRejectCause(i).getMessage());
+					}
+					insertCtn -= rejectCauses.size();
+					logError(BaseMessages.getString(PKG, "Load.Log.RowsRejectedByBatch", 
+								String.valueOf(rejectCauses.size())));
+				}
+			}
+			for (int i = 0; i < insertCtn; i++){
+				incrementLinesOutput();
+			}
 
-			if (requireUpdate ){
-				for (Object[] p : updateParams){
-					data.addBatchUpdateStmt(p);
-					incrementLinesUpdated();
+			//sat rows have "toDate" and require updates (not when following record was rejected)
+			if (meta.isToDateColumnUsed()){
+				//own count: expected by executeBatch to tell a tolerated PK conflict from a failure
+				int nbUpdateBound = 0;
+				for (int i = 0; i < updateRecs.size(); i++){
+					SatRecord nextRec = updateNextRecs.get(i);
+					if (rejectCauses == null || !rejectCauses.containsKey(nextRec)){
+						SatRecord rec = updateRecs.get(i);
+						updateValues[0] = nextRec.getValues()[data.posFromDate];
+						updateValues[1] = rec.getTechkeyValue();
+						updateValues[2] = rec.getValues()[data.posFromDate];
+						data.addBatchUpdateStmt(updateValues);
+						incrementLinesUpdated();
+						updateCtn++;
+						if (++nbUpdateBound == batchSize){
+							data.executeBatch(data.getPrepStmtUpdateSat(), nbUpdateBound);
+							nbUpdateBound = 0;
+						}
+					}
+				}
+				if (nbUpdateBound > 0){
+					data.executeBatch(data.getPrepStmtUpdateSat(), nbUpdateBound);
 				}
-				data.executeBatch(data.getPrepStmtUpdateSat(),updateParams.size());
 			}
 		} 
 
-		//Reach the point where all rows are "in-synch" in DB
-		data.db.commit();
+		//new records are now history for next buffers (not yet visible to lookup connection)
+		if (data.getOverlay() != null){
+			for (SatRecord rec : newRecs){
+				if (rejectCauses == null || !rejectCauses.containsKey(rec)){
+					rec.setAsPersisted();
+				}
+			}
+			data.getOverlay().addWritten(bufferSatHistRows, seq);
+		}
+
+		//Reach the point where all rows are "in-synch" in DB (lookup uses same connection)
+		data.getCommitTracker().addBuffer(insertCtn + updateCtn);
+		commitWhenDue(endOfInput);
 
 		//finished inserting sat record, can flush buffer 
-		for (Object[] r : data.getBufferRows()) {
-			putRow(data.outputRowMeta, r);
+		for (Object[] r : bufferRows) {
+			String cause = null;
+			if (rejectCauses != null){
+				cause = rejectCauses.get(new SatRecord(r,data.getSatAttsRowIdx(),
+											data.posFkInRow,data.posFromDateInRow));
+			}
+			if (cause == null){
+				output(r);
+			} else {
+				outputError(r, cause);
+			}
 		}
-		data.emptyBuffersAndClearPrepStmts();
-		
-		
-		/***** step-6 --> Continue processing or Exit if no more rows expected *****/
-		if (!data.finishedAllRows) {
-			return true;
+	}
+	
+	
+	/*
+	 * Send row downstream (in input order when preserved) 
+	 */
+	private void output(Object[] r) throws KettleStepException {
+		if (reorder != null) {
+			reorder.release(r);
 		} else {
-			setOutputDone();
-			return false;
+			putRow(data.outputRowMeta, r);
+		}
+	}
+	
+	private void outputError(Object[] r, String cause) throws KettleStepException {
+		//free slot before row is handed to error step
+		if (reorder != null) {
+			reorder.skip(r);
+		}
+		putError(getInputRowMeta(), r, 1, cause, null, "DVLOAD001");
+	}
+	
+	private final ReorderBuffer.Output reorderOutput = new ReorderBuffer.Output() {
+		public void put(Object[] row) throws KettleStepException {
+			putRow(data.outputRowMeta, row);
+		}
+	};
+	
+	
+	private void commitWhenDue(boolean endOfInput) throws KettleDatabaseException {
+		boolean due = data.getCommitTracker().isCommitDue(endOfInput);
+		if (!due && data.getCommitTracker().hasUncommitted() && data.isOverlayFull()){
+			//records not visible to lookup connection are only purged from overlay after commit
+			logDetailed(BaseMessages.getString(PKG, "Load.Log.OverlayCommit", 
+					String.valueOf(data.getOverlay().getNbRecords())));
+			due = true;
+		}
+		if (due){
+			data.db.commit();
+			data.getCommitTracker().committed();
+			data.setAllCommitted();
 		}
 	}
 	
@@ -277,7 +577,24 @@ public class LoadSat extends BaseStep implements StepInterface {
 			data.initPrepStmtUpdate(meta);
 		}
 		meta.getFields( data.outputRowMeta, getStepname(), null, null, this, repository, metaStore );
-		
+		if (meta.isPreserveOrder()){
+			//rows in-flight, ring full forces a flush
+			reorder = new ReorderBuffer(meta.getBufferSize() * (meta.getPipelineDepth() + 2) * 2, 
+					data.outputRowMeta.size(), reorderOutput);
+		}
+		if (meta.isAutoBufferSize()){
+			tuner = new BufferSizeTuner(BaseLoadMeta.MIN_BUFFER_SIZE, meta.getBufferSize(), 
+					BaseLoadMeta.MIN_BUFFER_SIZE * 10);
+		} else if (meta.isAdaptiveBuffer()){
+			adaptive = new AimdController(meta.getAdaptiveMinBuffer(), meta.getBufferSize(), 
+					meta.getPipelineDepth() + 1, meta.getAdaptiveTargetMs());
+		}
+		if (data.getLookupDb() != null){
+			pipeline = new StagePipeline<PipelinedBuffer, PipelinedBuffer>(getStepname() + "." + getCopy() + " lookup", 
+					meta.getPipelineDepth(), lookupStage);
+			pipeline.start();
+			logBasic("Pipelined DB stage on " + (IoExecutors.isVirtual() ? "virtual" : "platform") + " thread");
+		}
 	}
 
 	
@@ -306,6 +623,24 @@ public class LoadSat extends BaseStep implements StepInterface {
 				}
 				//Commit is taken care of explicitly 
 				data.db.setAutoCommit(false);
+				//With error handling, rows rejected by batch are isolated using savepoints
+				if (getStepMeta().isDoingErrorHandling()){
+					data.setBatchRecovery(BatchBisector.isSupported(data.db));
+					if (!data.isBatchRecovery()){
+						logBasic(BaseMessages.getString(PKG, "Load.Log.NoSavepointSupport"));
+					}
+				}
+				//Pipelined history lookup needs its own connection (cannot share the transaction)
+				if (meta.getPipelineDepth() > 0){
+					if (getTransMeta().isUsingUniqueConnections()){
+						logBasic(BaseMessages.getString(PKG, "Load.Log.PipelineNeedsOwnConnection"));
+					} else {
+						Database lookupDb = new Database(this, meta.getDatabaseMeta());
+						lookupDb.shareVariablesWith(this);
+						lookupDb.connect(getPartitionID());
+						data.setLookupDb(lookupDb);
+					}
+				}
 
 				return true;
 			} catch (KettleDatabaseException dbe) {
@@ -320,6 +655,27 @@ public class LoadSat extends BaseStep implements StepInterface {
 		meta = (LoadSatMeta) smi;
 		data = (LoadSatData) sdi;
 
+		if (pipeline != null) {
+			pipeline.stop();
+		}
+		if (reader != null) {
+			reader.stop();
+		}
+		if (tuner != null) {
+			logBasic("Auto buffer size chosen: " + tuner);
+		}
+		if (adaptive != null) {
+			logBasic("Adaptive buffer ended with " + adaptive + " (" + adaptive.getNbDecreases() + " back-offs)");
+		}
+		if (data.getLookupDb() != null) {
+			try {
+				data.getLookupDb().closePreparedStatement(data.getPrepStmtLookupPipelined());
+			} catch (KettleDatabaseException e) {
+				logError(BaseMessages.getString(PKG, "Load.Log.UnexpectedError") + " : " + e.toString());
+			} finally {
+				data.getLookupDb().disconnect();
+			}
+		}
 		if (data.db != null) {
 			try {
 				if (getErrors() == 0) {
@@ -25,16 +25,25 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.NavigableSet;
+import java.util.Set;
 import java.util.TreeSet;
 
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DB2DatabaseMeta;
 import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.database.MSSQLServerDatabaseMeta;
+import org.pentaho.di.core.database.OracleDatabaseMeta;
+import org.pentaho.di.core.database.PostgreSQLDatabaseMeta;
+import org.pentaho.di.core.database.VerticaDatabaseMeta;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleValueException;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
@@ -47,6 +56,11 @@ import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
 
 import plugin.dvloader.trans.steps.common.BaseLoadMeta;
+import plugin.dvloader.trans.steps.common.BatchBisector;
+import plugin.dvloader.trans.steps.common.CommitTracker;
+import plugin.dvloader.trans.steps.common.RowSizeEstimator;
+import plugin.dvloader.trans.steps.common.SatHistoryOverlay;
+import plugin.dvloader.trans.steps.common.SatLookupQuery;
 import plugin.dvloader.trans.steps.common.SatRecord;
 
 /**
@@ -80,6 +94,11 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 	// is using number of millisecond since epoch...
 	public long minDateBuffer = Long.MAX_VALUE;
 
+	// heap used per buffered row by SatRecord and its tree entry (memory budget)
+	public static int HIST_ENTRY_BYTES = 80;
+	// max records kept by overlay until commit (pipelined mode)
+	public static int MAX_OVERLAY_RECORDS = 500000;
+
 	// Fields sorted as in UI mapping entry
 	private RowMetaInterface lookupRowMeta;
 	// Same as lookup + optional fields (meta-attr, toDate, ..)
@@ -94,6 +113,10 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 
 	// Buffer storing original input rows
 	private List<Object[]> bufferRows;
+	//memory budget of bufferRows (null when sized on rows only)
+	private RowSizeEstimator sizeEstimator;
+	private long maxBufferBytes;
+	private long bufferBytes;
 
 	// index of sat attribute fields position in row stream 
 	// excluding meta-attributes
@@ -105,6 +128,9 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 	public int posFk = -1;
 	// position of FromDate in satAttsRowIdx (same as lookupRowMeta)
 	public int posFromDate = -1;
+	// parameter index of first FK and of minDate in lookup query (depends on DB syntax)
+	private int fkParamIdx = 1;
+	private int[] minDateParamIdx;
 
 	//position index of fields stored in BINARY in row stream (= null if none)
 	private int[] fieldsInBinary = null;
@@ -115,6 +141,20 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 
 	public boolean finishedAllRows = false;
 
+	// decide when to commit (commit policy)
+	private CommitTracker commitTracker;
+	// isolate rows rejected by batch (only when error handling is defined)
+	private boolean batchRecovery;
+
+	// pipelined mode: history lookup runs on its own connection 
+	private Database lookupDb;
+	private PreparedStatement prepStmtLookupPipelined;
+	// records written but maybe not yet visible to lookup connection
+	private SatHistoryOverlay overlay;
+	// sequence of last buffer written, and of last buffer committed
+	private long writeSeq = 0;
+	private volatile long committedSeq = 0;
+
 	// TODO: all meta audit the same way (dedicate class "MetaValues" with
 	// systdate, source, etc.. and fk-batchId..
 	// For now, we just use creation-date
@@ -149,6 +189,13 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 		if (bufferSatHistRows == null) {
 			bufferSatHistRows = new TreeSet<SatRecord>();
 		}
+		if (sizeEstimator == null && meta.getBufferMemoryMB() > 0) {
+			sizeEstimator = new RowSizeEstimator(outputRowMeta);
+			maxBufferBytes = meta.getBufferMemoryBytes();
+		}
+		if (commitTracker == null) {
+			commitTracker = new CommitTracker(meta.getCommitPolicy(), meta.getCommitInterval());
+		}
 
 		// initialize all naming needing variable substitution (${var})
 		realSchemaName = meta.getDatabaseMeta().environmentSubstitute(meta.getSchemaName());
@@ -174,7 +221,9 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 				throw new KettleStepException(BaseMessages.getString(PKG, "Load.Exception.FieldNotFound",
 						meta.getFields()[i]));
 			}
-			if (outputRowMeta.getValueMeta(iv).isStorageBinaryString()) {
+			//meta-att are only inserted, so left lazy
+			if (outputRowMeta.getValueMeta(iv).isStorageBinaryString() 
+					&& !meta.getTypes()[i].equals(LoadSatMeta.ATTRIBUTE_META)) {
 				nbBinary++;
 			}
 			if (meta.getTypes()[i].equals(LoadSatMeta.ATTRIBUTE_META) ){
@@ -212,8 +261,8 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 		if (nbBinary > 0){
 			fieldsInBinary = new int[nbBinary];
 			nbBinary = 0;
-			for (int i = 0; i < meta.getFields().length; i++) {
-				int ix = outputRowMeta.indexOfValue(meta.getFields()[i]);
+			for (int i = 0; i < satAttsRowIdx.length; i++) {
+				int ix = satAttsRowIdx[i];
 				ValueMetaInterface val = outputRowMeta.getValueMeta(ix);
 				if (val.isStorageBinaryString()){
 					val.setStorageType(ValueMetaInterface.STORAGE_TYPE_NORMAL);
@@ -224,11 +273,87 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 		}
 	}
 
+	/**
+	 * Buffer handed over to the lookup stage (pipelined mode)
+	 */
+	public static class PipelinedBuffer {
+		private final List<Object[]> rows;
+		private final long minDate;
+		private final NavigableSet<SatRecord> hist = new TreeSet<SatRecord>();
+		// last buffer committed when lookup started (visible to lookup)
+		private long visibleSeq;
+		private long lookupMs;
+
+		private PipelinedBuffer(List<Object[]> rows, long minDate) {
+			this.rows = rows;
+			this.minDate = minDate;
+		}
+
+		public List<Object[]> getRows() {
+			return rows;
+		}
+
+		public NavigableSet<SatRecord> getHist() {
+			return hist;
+		}
+
+		public long getVisibleSeq() {
+			return visibleSeq;
+		}
+
+		public long getLookupMs() {
+			return lookupMs;
+		}
+	}
+
+	/*
+	 * Hand-over the filled buffer (pipelined mode) and start a new one
+	 */
+	public PipelinedBuffer swapBufferRows() {
+		PipelinedBuffer filled = new PipelinedBuffer(bufferRows, minDateBuffer);
+		bufferRows = new ArrayList<Object[]>(filled.rows.size() + 10);
+		minDateBuffer = Long.MAX_VALUE;
+		return filled;
+	}
+
+	/*
+	 * Lookup stage (pipelined mode), run on the lookup connection
+	 */
+	public void lookupPipelined(LoadSatMeta meta, PipelinedBuffer buffer) throws KettleDatabaseException {
+		buffer.visibleSeq = committedSeq;
+		long start = System.currentTimeMillis();
+		lookupHistory(meta, lookupDb, prepStmtLookupPipelined, buffer.rows, meta.getLookupParamsSize(), 
+				buffer.minDate, buffer.hist);
+		buffer.lookupMs = System.currentTimeMillis() - start;
+		try {
+			prepStmtLookupPipelined.clearParameters();
+		} catch (SQLException e) {
+			throw new KettleDatabaseException(e);
+		}
+	}
+
+	/*
+	 * Merge records written by previous buffers not visible to the lookup (pipelined mode)
+	 */
+	public int applyOverlay(PipelinedBuffer buffer) {
+		Set<Long> fks = new HashSet<Long>();
+		for (Object[] r : buffer.rows) {
+			fks.add((Long) r[posFkInRow]);
+		}
+		int n = overlay.applyTo(buffer.hist, fks);
+		overlay.purge(buffer.visibleSeq);
+		return n;
+	}
+
 	public void emptyBuffersAndClearPrepStmts() {
 		bufferRows.clear();
 		bufferSatHistRows.clear();
 		//reset minDatefor the next Buffer
 		minDateBuffer = Long.MAX_VALUE;
+		clearPrepStmts();
+	}
+
+	public void clearPrepStmts() {
 		try {
 			prepStmtLookup.clearParameters();
 			prepStmtInsertSat.clearParameters();
@@ -264,6 +389,15 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 		 * AND [fromDate] >= ( SELECT CASE WHEN max([fromDate]) IS
 		 * NOT NULL THEN max([fromDate]) ELSE DATE '0001-01-01' END 
 		 * FROM sat_table WHERE [surrFK] = Sat.[surrFK] AND [fromDate] < ? )
+		 * 
+		 * DB supporting window functions avoid the correlated subquery (evaluated
+		 * for every candidate row) by ranking rows prior to minimum "FromDate":
+		 * 
+		 * SELECT [col1], [col2] .. FROM (
+		 * SELECT [col1], [col2] .., ROW_NUMBER() OVER (PARTITION BY [surrFK], 
+		 * CASE WHEN [fromDate] < ? THEN 0 ELSE 1 END ORDER BY [fromDate] DESC) AS dv_rn 
+		 * FROM [sat_table] WHERE [surrFK] IN ( ?,* ?, ? ... ) ) Sat
+		 * WHERE dv_rn = 1 OR [fromDate] >= ?
 		 */
 		String cols = "";
 
@@ -277,36 +411,40 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 		}
 		cols = cols.substring(0, cols.lastIndexOf(","));
 
-		String sql = "SELECT " + cols + " FROM " + qualifiedSatTable + " Sat " + Const.CR;
-		String whereIn = "WHERE " + dbMeta.quoteField(meta.getFkColumn()) + " IN ( ";
-		String p = "";
-		for (int j = 0; j < meta.getBufferSize(); j++) {
-			if (j < meta.getBufferSize() - 1) {
-				p += "?, ";
-			} else {
-				p += "? ) ";
-			}
-		}
-		sql = sql + whereIn + p;
-
-		if (meta.getFromDateColumn() != null) {
-			String fromD = dbMeta.quoteField(meta.getFromDateColumn());
-			String whereF = Const.CR + " AND " + fromD + " >= ";
-			String whereS = " ( SELECT CASE WHEN max(" + fromD + ") IS NOT NULL THEN max(" + fromD
-					+ ") ELSE DATE '0001-01-01' END " + Const.CR + " FROM " + qualifiedSatTable + " WHERE "
-					+ meta.getFkColumn();
-			whereS += " = Sat." + meta.getFkColumn() + " AND " + fromD + " < ? )";
-			sql = sql + whereF + whereS;
+		boolean windowFunction = isWindowFunctionSupported(dbMeta);
+		String fromD = (meta.getFromDateColumn() != null) ? dbMeta.quoteField(meta.getFromDateColumn()) : null;
+		SatLookupQuery query = SatLookupQuery.build(cols, qualifiedSatTable, dbMeta.quoteField(meta.getFkColumn()), 
+				fromD, meta.getLookupParamsSize(), windowFunction);
+		String sql = query.getSql();
+		fkParamIdx = query.getFkParamIdx();
+		minDateParamIdx = query.getMinDateParamIdx();
+		if (fromD != null && windowFunction) {
+			log.logDetailed("Satellite lookup uses window function ROW_NUMBER()");
 		}
 
 		try {
 			log.logDebug("Prepared statement for Lookup:" + Const.CR + sql);
 			prepStmtLookup = db.getConnection().prepareStatement(dbMeta.stripCR(sql));
+			if (lookupDb != null) {
+				prepStmtLookupPipelined = lookupDb.getConnection().prepareStatement(dbMeta.stripCR(sql));
+			}
 		} catch (SQLException ex) {
 			throw new KettleDatabaseException(ex);
 		}
 	}
 
+	/*
+	 * DB known to support ROW_NUMBER() OVER (PARTITION BY ..) used by history lookup
+	 * (others keep the correlated max() subquery)
+	 */
+	private boolean isWindowFunctionSupported(DatabaseMeta dbMeta) {
+		return dbMeta.getDatabaseInterface() instanceof PostgreSQLDatabaseMeta
+				|| dbMeta.getDatabaseInterface() instanceof OracleDatabaseMeta
+				|| dbMeta.getDatabaseInterface() instanceof MSSQLServerDatabaseMeta
+				|| dbMeta.getDatabaseInterface() instanceof DB2DatabaseMeta
+				|| dbMeta.getDatabaseInterface() instanceof VerticaDatabaseMeta;
+	}
+
 	public void initPrepStmtInsert(LoadSatMeta meta) throws KettleDatabaseException {
 		DatabaseMeta dbMeta = meta.getDatabaseMeta();
 		insertRowMeta = new RowMeta();
@@ -421,8 +559,15 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 	}
 
 	public boolean addToBufferRows(Object[] r, int bufferSize) {
+		if (bufferRows.isEmpty()) {
+			bufferBytes = 0;
+		}
 		if (bufferRows.size() < bufferSize) {
 			bufferRows.add(r);
+			//history read for the row is assumed to be as wide as the row itself
+			if (sizeEstimator != null) {
+				bufferBytes += 2 * sizeEstimator.estimate(r) + HIST_ENTRY_BYTES;
+			}
 
 			// update the minimum date
 			// using java.util.Date for now, should be OK for most cases
@@ -432,64 +577,78 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 					minDateBuffer = d.getTime();
 				}
 			}
-			return (bufferRows.size() < bufferSize);
+			return (bufferRows.size() < bufferSize) && (sizeEstimator == null || bufferBytes < maxBufferBytes);
 		} else {
 			return false;
 		}
 	}
 
 	public int populateLookupMap(LoadSatMeta meta, int nbParamsClause) throws KettleDatabaseException {
+		return lookupHistory(meta, db, prepStmtLookup, bufferRows, nbParamsClause, minDateBuffer, bufferSatHistRows);
+	}
+
+	private int lookupHistory(LoadSatMeta meta, Database db, PreparedStatement prepStmtLookup, List<Object[]> bufferRows,
+			int nbParamsClause, long minDateBuffer, NavigableSet<SatRecord> bufferSatHistRows) throws KettleDatabaseException {
 		
-		for (int i = 0; i < nbParamsClause; i++) {
-			Object[] r;
-			// in case, we have less than buffer size
-			try {
-				r = bufferRows.get(i);
-			} catch (IndexOutOfBoundsException e) {
-				r = null;
+		// distinct FK of buffer: history of a FK is fetched by a single query
+		Set<Object> distinctFks = new LinkedHashSet<Object>();
+		for (Object[] r : bufferRows) {
+			distinctFks.add(r[posFkInRow]);
+		}
+		List<Object> fks = new ArrayList<Object>(distinctFks);
+
+		// more FK than IN-list are looked-up in several queries
+		int from = 0;
+		do {
+			for (int i = 0; i < nbParamsClause; i++) {
+				// in case, we have less than buffer size
+				Object key = (from + i < fks.size()) ? fks.get(from + i) : null;
+				db.setValue(prepStmtLookup, lookupRowMeta.getValueMeta(posFk), key, fkParamIdx + i);
 			}
-			Object key = (r != null) ? r[posFkInRow] : null;
-			db.setValue(prepStmtLookup, lookupRowMeta.getValueMeta(posFk), key, i + 1);
-		}
-		// final parameters (minDate) to limit historical sat rows
-		if (posFromDate != -1) {
-			java.util.Date minDate = new Date(minDateBuffer);
-			db.setValue(prepStmtLookup, lookupRowMeta.getValueMeta(posFromDate), minDate, nbParamsClause + 1);
-		}
-
-		// go fetch data in DB and populate satHistRows buffer
-		ResultSet rs;
-		try {
-			rs = prepStmtLookup.executeQuery();
-		} catch (SQLException e) {
-			throw new KettleDatabaseException("Unable to execute Satellite Lookup query", e);
-		}
-
-		for (Object[] r : getLookupRows(rs, meta)) {
-			SatRecord v = new SatRecord(r, 0, lookupRowMeta.size(), posFk, posFromDate);
-			// flag record coming from DB as persisted
-			v.setAsPersisted();
-			// records from DB have integrity so no duplicates expected
-			if (!bufferSatHistRows.add(v)) {
-				meta.getLog().logError("Check DB state, satellite table has row duplicates: " + meta.getTargetTable());
+			// minDate parameter(s) to limit historical sat rows
+			if (posFromDate != -1) {
+				java.util.Date minDate = new Date(minDateBuffer);
+				for (int idx : minDateParamIdx) {
+					db.setValue(prepStmtLookup, lookupRowMeta.getValueMeta(posFromDate), minDate, idx);
+				}
 			}
-		}
+	
+			// go fetch data in DB and populate satHistRows buffer
+			ResultSet rs;
+			try {
+				rs = prepStmtLookup.executeQuery();
+			} catch (SQLException e) {
+				throw new KettleDatabaseException("Unable to execute Satellite Lookup query", e);
+			}
+	
+			readLookupRows(db, rs, meta, bufferSatHistRows);
+			from += nbParamsClause;
+		} while (from < fks.size());
 		return bufferSatHistRows.size();
 	}
 
-	private List<Object[]> getLookupRows(ResultSet rs, LoadSatMeta meta) throws KettleDatabaseException {
-		List<Object[]> result = new ArrayList<Object[]>(meta.getBufferSize() * 3);
+	/*
+	 * Rows are read in one scratch array (SatRecord copies values), no list nor array per row  
+	 */
+	private void readLookupRows(Database db, ResultSet rs, LoadSatMeta meta, 
+			NavigableSet<SatRecord> bufferSatHistRows) throws KettleDatabaseException {
+		Object[] row = new Object[lookupRowMeta.size()];
 		try {
 			while (rs.next()) {
-				Object[] row = new Object[lookupRowMeta.size()];
 				for (int i = 0; i < lookupRowMeta.size(); i++) {
 					ValueMetaInterface val = lookupRowMeta.getValueMeta(i);
 					row[i] = db.getDatabaseMeta().getValueFromResultSet(rs, val, i);
 				}
-				result.add(row);
+				SatRecord v = new SatRecord(row, 0, lookupRowMeta.size(), posFk, posFromDate);
+				// flag record coming from DB as persisted
+				v.setAsPersisted();
+				// records from DB have integrity so no duplicates expected 
+				// (queries have distinct FK, so a record already added comes from same result set)
+				if (!bufferSatHistRows.add(v)) {
+					meta.getLog().logError("Check DB state, satellite table has row duplicates: " + meta.getTargetTable());
+				}
 			}
 			db.closeQuery(rs);
-			return result;
 		} catch (Exception e) {
 			throw new KettleDatabaseException("Unable to get list of satellite rows from ResultSet : ", e);
 		}
@@ -509,8 +668,18 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 		// ***********************************************
 		if (satMetaAttsRowIdx != null) {
 			for (int i = 0; i < satMetaAttsRowIdx.length; i++) {
+				Object v = satRow.getMetaAtts()[i];
+				//converted only for rows inserted
+				ValueMetaInterface vm = outputRowMeta.getValueMeta(satMetaAttsRowIdx[i]);
+				if (vm.isStorageBinaryString()) {
+					try {
+						v = vm.convertToNormalStorageType(v);
+					} catch (KettleValueException e) {
+						throw new KettleDatabaseException("Unable to convert binary field: " + vm.getName(), e);
+					}
+				}
 				db.setValue(prepStmtInsertSat, 
-						insertRowMeta.getValueMeta(i + satAttsRowIdx.length), satRow.getMetaAtts()[i], i + satAttsRowIdx.length + 1);
+						insertRowMeta.getValueMeta(i + satAttsRowIdx.length), v, i + satAttsRowIdx.length + 1);
 			}
 		}
 		
@@ -547,6 +716,9 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 		}
 	}
 
+	/*
+	 * Bind update of existing record's "toDate" (params are copied by addBatch, values can be reused) 
+	 */
 	public void addBatchUpdateStmt(Object[] values) throws KettleDatabaseException {
 		try {
 			db.setValues(updateToDateRowMeta, values, prepStmtUpdateSat);
@@ -583,6 +755,74 @@ public class LoadSatData extends BaseStepData implements StepDataInterface {
 		}
 	}
 
+	/**
+	 * Execute batch insert in recovery mode: failing batch is rolled back to a savepoint 
+	 * and re-executed in halves until records rejected by DB are isolated.
+	 * 
+	 * @param meta
+	 * @param recs new sat records (bound by batches of insert batch size)
+	 * @param toDates optional toDate of each new record
+	 * @return bisector holding index of rejected records with their cause 
+	 * @throws KettleDatabaseException
+	 */
+	public BatchBisector executeBatchInsertWithRecovery(final LoadSatMeta meta, final List<SatRecord> recs,
+			final List<Object> toDates) throws KettleDatabaseException {
+		BatchBisector bisector = new BatchBisector(db, prepStmtInsertSat) {
+			protected void addBatch(int idx) throws KettleDatabaseException {
+				addBatchInsert(meta, recs.get(idx), toDates.get(idx));
+			}
+		};
+		bisector.execute(recs.size(), meta.getInsertBatchSize(recs.size()));
+		return bisector;
+	}
+
+	public boolean isBatchRecovery() {
+		return batchRecovery;
+	}
+
+	public void setBatchRecovery(boolean batchRecovery) {
+		this.batchRecovery = batchRecovery;
+	}
+
+	public Database getLookupDb() {
+		return lookupDb;
+	}
+
+	public void setLookupDb(Database lookupDb) {
+		this.lookupDb = lookupDb;
+		overlay = (lookupDb == null) ? null : new SatHistoryOverlay();
+	}
+
+	public PreparedStatement getPrepStmtLookupPipelined() {
+		return prepStmtLookupPipelined;
+	}
+
+	public SatHistoryOverlay getOverlay() {
+		return overlay;
+	}
+
+	/**
+	 * @return true when overlay reached its cap, so a commit must be forced (e.g. commit policy "end") 
+	 */
+	public boolean isOverlayFull() {
+		return overlay != null && overlay.getNbRecords() >= MAX_OVERLAY_RECORDS;
+	}
+
+	public long nextWriteSeq() {
+		return ++writeSeq;
+	}
+
+	/*
+	 * All buffers written so far are committed (visible to lookup connection)
+	 */
+	public void setAllCommitted() {
+		committedSeq = writeSeq;
+	}
+
+	public CommitTracker getCommitTracker() {
+		return commitTracker;
+	}
+
 	public String getRealSchemaName() {
 		return realSchemaName;
 	}
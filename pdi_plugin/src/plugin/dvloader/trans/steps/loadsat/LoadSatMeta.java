@@ -329,6 +329,17 @@ public class LoadSatMeta extends BaseLoadMeta implements StepMetaInterface {
 	public String getOtherTypeString() {
 		return null;
 	}
+	
+	//partitions are on the Hub FK
+	@Override
+	protected String getPartitionKeyType() {
+		return ATTRIBUTE_FK;
+	}
+
+	@Override
+	protected boolean isLookupInList() {
+		return true;
+	}
 
 
 	public String getFromDateColumn() {
@@ -375,4 +386,8 @@ public class LoadSatMeta extends BaseLoadMeta implements StepMetaInterface {
 		return fkColumn;
 	}
 
+	public void setFkColumn(String fkColumn) {
+		this.fkColumn = fkColumn;
+	}
+
 }
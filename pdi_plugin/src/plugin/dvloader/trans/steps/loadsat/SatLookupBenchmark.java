@@ -0,0 +1,181 @@
+/*
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright (c) 2014 Martin Ouellet
+ *
+ */
+package plugin.dvloader.trans.steps.loadsat;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+/**
+ * Time and allocation of the Sat history lookup (LoadSatData.populateLookupMap: bind, 
+ * read of ResultSet into SatRecord) over an in-memory JDBC driver returning one history 
+ * row per FK looked-up.  Run manually (main), not part of unit tests: bytes are measured 
+ * with HotSpot per-thread allocation counter when available.  Not packaged in the plugin 
+ * jar, nor its fake driver classes (see build.xml).
+ *
+ * @author mouellet
+ *
+ */
+public class SatLookupBenchmark {
+	private static final int BUFFER = 5000;
+	private static final int LOOKUP_SIZE = 1000;
+	private static final int WARMUP = 200;
+	private static final int RUNS = 51;
+	private static final String[] COLS = new String[] { "fk", "from_date", "a1", "a2", "a3", "a4" };
+
+	/*
+	 * Statement returning one history row per FK bound
+	 */
+	private static class FakeLookup implements InvocationHandler {
+		private final List<Long> fks = new ArrayList<Long>();
+		private Object[][] rows;
+		private int pos;
+		private boolean wasNull;
+
+		public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+			String name = m.getName();
+			if (name.startsWith("set")) {
+				if (args.length > 1 && args[1] instanceof Long) {
+					fks.add((Long) args[1]);
+				}
+				return null;
+			} else if (name.equals("executeQuery")) {
+				rows = new Object[fks.size()][];
+				for (int i = 0; i < rows.length; i++) {
+					Long fk = fks.get(i);
+					rows[i] = new Object[] { fk, new Timestamp(1000L * fk), "a" + fk, "b", "c", "d" };
+				}
+				fks.clear();
+				pos = -1;
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { ResultSet.class }, this);
+			} else if (name.equals("next")) {
+				return ++pos < rows.length;
+			} else if (name.startsWith("get") && args != null && args.length == 1 && args[0] instanceof Integer) {
+				Object v = rows[pos][(Integer) args[0] - 1];
+				wasNull = (v == null);
+				return (m.getReturnType() == long.class) ? (Object) ((v == null) ? 0L : v) : v;
+			} else if (name.equals("wasNull")) {
+				return wasNull;
+			} else if (name.equals("close") || name.equals("clearParameters")) {
+				return null;
+			}
+			throw new UnsupportedOperationException(name);
+		}
+	}
+
+	private static final InvocationHandler connection = new InvocationHandler() {
+		public Object invoke(Object proxy, Method m, Object[] args) throws Throwable {
+			if (m.getName().equals("prepareStatement")) {
+				return Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { PreparedStatement.class },
+						new FakeLookup());
+			}
+			throw new UnsupportedOperationException(m.getName());
+		}
+	};
+
+	private static long allocatedBytes() {
+		try {
+			Object bean = ManagementFactory.getThreadMXBean();
+			Method m = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+			return (Long) m.invoke(bean, Thread.currentThread().getId());
+		} catch (Exception e) {
+			return -1;
+		}
+	}
+
+	private static long median(long[] values) {
+		Arrays.sort(values);
+		return values[values.length / 2];
+	}
+
+	public static void main(String[] args) throws KettleException {
+		DatabaseMeta dbMeta = new DatabaseMeta();
+		LoadSatMeta meta = new LoadSatMeta();
+		meta.setDatabaseMeta(dbMeta);
+		meta.setTargetTable("sat_bench");
+		meta.setBufferSize(BUFFER);
+		meta.setLookupSize(LOOKUP_SIZE);
+		meta.setFields(COLS);
+		meta.setCols(COLS);
+		meta.setTypes(new String[] { LoadSatMeta.ATTRIBUTE_FK, LoadSatMeta.ATTRIBUTE_TEMPORAL, 
+				LoadSatMeta.ATTRIBUTE_NORMAL, LoadSatMeta.ATTRIBUTE_NORMAL, LoadSatMeta.ATTRIBUTE_NORMAL, 
+				LoadSatMeta.ATTRIBUTE_NORMAL });
+		meta.setFkColumn("fk");
+		meta.setFromDateColumn("from_date");
+
+		RowMetaInterface rowMeta = new RowMeta();
+		rowMeta.addValueMeta(new ValueMetaInteger("fk"));
+		rowMeta.addValueMeta(new ValueMetaDate("from_date"));
+		for (int i = 2; i < COLS.length; i++) {
+			rowMeta.addValueMeta(new ValueMetaString(COLS[i]));
+		}
+
+		LoadSatData data = (LoadSatData) meta.getStepData();
+		data.outputRowMeta = rowMeta;
+		data.db = new Database(null, dbMeta);
+		data.db.setConnection((Connection) Proxy.newProxyInstance(SatLookupBenchmark.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, connection));
+		data.initializeRowProcessing(meta);
+		data.initPrepStmtLookup(meta);
+		for (long fk = 0; fk < BUFFER; fk++) {
+			data.addToBufferRows(new Object[] { fk, new Date(1000L * fk + 500), "a" + fk, "b2", "c", "d" }, BUFFER);
+		}
+
+		for (int i = 0; i < WARMUP; i++) {
+			data.getBufferSatHistRows().clear();
+			data.populateLookupMap(meta, meta.getLookupParamsSize());
+		}
+		long[] nanos = new long[RUNS];
+		long[] bytes = new long[RUNS];
+		for (int i = 0; i < RUNS; i++) {
+			data.getBufferSatHistRows().clear();
+			long startBytes = allocatedBytes();
+			long start = System.nanoTime();
+			int nbHist = data.populateLookupMap(meta, meta.getLookupParamsSize());
+			nanos[i] = System.nanoTime() - start;
+			bytes[i] = (startBytes < 0) ? -1 : allocatedBytes() - startBytes;
+			if (nbHist != BUFFER) {
+				throw new IllegalStateException("Expected " + BUFFER + " history rows, got " + nbHist);
+			}
+		}
+		if (bytes[0] < 0) {
+			System.out.println("Per-thread allocation counter not available on this JVM");
+		}
+		System.out.println("Sat lookup of " + BUFFER + " FK (" + LOOKUP_SIZE + " per query): " 
+				+ (median(nanos) / 1000) + " us, " + (median(bytes) / 1024) + " KB allocated (median of " + RUNS + ")");
+	}
+
+}
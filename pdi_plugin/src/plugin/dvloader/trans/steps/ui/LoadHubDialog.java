@@ -92,10 +92,23 @@ public class LoadHubDialog extends BaseLoadDialog implements StepDialogInterface
 
 	private Label wlTableMax;
 	private Button wTableMax;
+	private Label wlSegment;
+	private Button wSegment;
+	private Label wlInitialLoad;
+	private Button wInitialLoad;
+	private Label wlPartitionByKey;
+	private Button wPartitionByKey;
+	private Label wlSortNewKeys;
+	private Button wSortNewKeys;
+	private Label wlKeyCacheSize;
+	private Text wKeyCacheSize;
+	private Label wlSpillAfter;
+	private Text wSpillAfter;
 
 	private Label wlSeqButton;
 	private Button wSeqButton;
 	private Text wSeq;
+	private Button wSeqPrefetch;
 
 	private Label wlKey;
 	private TableView wKey;
@@ -137,6 +150,116 @@ public class LoadHubDialog extends BaseLoadDialog implements StepDialogInterface
 
 		// Batch size ...
 		
+		// Initial load ?
+		wlInitialLoad = new Label(shell, SWT.RIGHT);
+		wlInitialLoad.setText(BaseMessages.getString(PKG, "LoadDialog.InitialLoad.Label"));
+		props.setLook(wlInitialLoad);
+		FormData fdlInitialLoad = new FormData();
+		fdlInitialLoad.left = new FormAttachment(0, 0);
+		fdlInitialLoad.right = new FormAttachment(middle, -margin);
+		fdlInitialLoad.top = new FormAttachment(lastCommonLine, margin);
+		wlInitialLoad.setLayoutData(fdlInitialLoad);
+
+		wInitialLoad = new Button(shell, SWT.CHECK);
+		props.setLook(wInitialLoad);
+		FormData fdInitialLoad = new FormData();
+		fdInitialLoad.left = new FormAttachment(middle, 0);
+		fdInitialLoad.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
+		fdInitialLoad.top = new FormAttachment(lastCommonLine, margin);
+		wInitialLoad.setLayoutData(fdInitialLoad);
+		wInitialLoad.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.InitialLoad.Tooltip", Const.CR));
+		wInitialLoad.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				inputMeta.setChanged();
+			}
+		});
+
+		// Partition keys across copies ?
+		wlPartitionByKey = new Label(shell, SWT.RIGHT);
+		wlPartitionByKey.setText(BaseMessages.getString(PKG, "LoadDialog.PartitionByKey.Label"));
+		props.setLook(wlPartitionByKey);
+		FormData fdlPartitionByKey = new FormData();
+		fdlPartitionByKey.left = new FormAttachment(0, 0);
+		fdlPartitionByKey.right = new FormAttachment(middle, -margin);
+		fdlPartitionByKey.top = new FormAttachment(wInitialLoad, margin);
+		wlPartitionByKey.setLayoutData(fdlPartitionByKey);
+
+		wPartitionByKey = new Button(shell, SWT.CHECK);
+		props.setLook(wPartitionByKey);
+		FormData fdPartitionByKey = new FormData();
+		fdPartitionByKey.left = new FormAttachment(middle, 0);
+		fdPartitionByKey.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
+		fdPartitionByKey.top = new FormAttachment(wInitialLoad, margin);
+		wPartitionByKey.setLayoutData(fdPartitionByKey);
+		wPartitionByKey.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.PartitionByKey.Tooltip", Const.CR));
+		wPartitionByKey.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				inputMeta.setChanged();
+			}
+		});
+
+		// Sort new keys before insert ?
+		wlSortNewKeys = new Label(shell, SWT.RIGHT);
+		wlSortNewKeys.setText(BaseMessages.getString(PKG, "LoadDialog.SortNewKeys.Label"));
+		props.setLook(wlSortNewKeys);
+		FormData fdlSortNewKeys = new FormData();
+		fdlSortNewKeys.left = new FormAttachment(0, 0);
+		fdlSortNewKeys.right = new FormAttachment(middle, -margin);
+		fdlSortNewKeys.top = new FormAttachment(wPartitionByKey, margin);
+		wlSortNewKeys.setLayoutData(fdlSortNewKeys);
+
+		wSortNewKeys = new Button(shell, SWT.CHECK);
+		props.setLook(wSortNewKeys);
+		FormData fdSortNewKeys = new FormData();
+		fdSortNewKeys.left = new FormAttachment(middle, 0);
+		fdSortNewKeys.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
+		fdSortNewKeys.top = new FormAttachment(wPartitionByKey, margin);
+		wSortNewKeys.setLayoutData(fdSortNewKeys);
+		wSortNewKeys.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.SortNewKeys.Tooltip", Const.CR));
+		wSortNewKeys.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				inputMeta.setChanged();
+			}
+		});
+
+		// Key cache size ...
+		wlKeyCacheSize = new Label(shell, SWT.RIGHT);
+		wlKeyCacheSize.setText(BaseMessages.getString(PKG, "LoadDialog.KeyCacheSize.Label"));
+		props.setLook(wlKeyCacheSize);
+		FormData fdlKeyCacheSize = new FormData();
+		fdlKeyCacheSize.left = new FormAttachment(0, 0);
+		fdlKeyCacheSize.right = new FormAttachment(middle, -margin);
+		fdlKeyCacheSize.top = new FormAttachment(wSortNewKeys, margin);
+		wlKeyCacheSize.setLayoutData(fdlKeyCacheSize);
+		wKeyCacheSize = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wKeyCacheSize.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.KeyCacheSize.Tooltip", Const.CR));
+		props.setLook(wKeyCacheSize);
+		wKeyCacheSize.addModifyListener(lsMod);
+		FormData fdKeyCacheSize = new FormData();
+		fdKeyCacheSize.left = new FormAttachment(middle, 0);
+		fdKeyCacheSize.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
+		fdKeyCacheSize.top = new FormAttachment(wSortNewKeys, margin);
+		wKeyCacheSize.setLayoutData(fdKeyCacheSize);
+
+		// Spill held rows after ...
+		wlSpillAfter = new Label(shell, SWT.RIGHT);
+		wlSpillAfter.setText(BaseMessages.getString(PKG, "LoadDialog.SpillAfter.Label"));
+		props.setLook(wlSpillAfter);
+		FormData fdlSpillAfter = new FormData();
+		fdlSpillAfter.left = new FormAttachment(0, 0);
+		fdlSpillAfter.right = new FormAttachment(middle, -margin);
+		fdlSpillAfter.top = new FormAttachment(wKeyCacheSize, margin);
+		wlSpillAfter.setLayoutData(fdlSpillAfter);
+		wSpillAfter = new Text(shell, SWT.SINGLE | SWT.LEFT | SWT.BORDER);
+		wSpillAfter.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.SpillAfter.Tooltip", Const.CR));
+		props.setLook(wSpillAfter);
+		wSpillAfter.addModifyListener(lsMod);
+		FormData fdSpillAfter = new FormData();
+		fdSpillAfter.left = new FormAttachment(middle, 0);
+		fdSpillAfter.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
+		fdSpillAfter.top = new FormAttachment(wKeyCacheSize, margin);
+		wSpillAfter.setLayoutData(fdSpillAfter);
+
 		//
 		// The fields: keys + none-keys
 		//
@@ -145,7 +268,7 @@ public class LoadHubDialog extends BaseLoadDialog implements StepDialogInterface
 		props.setLook(wlKey);
 		FormData fdlKey = new FormData();
 		fdlKey.left = new FormAttachment(0, 0);
-		fdlKey.top = new FormAttachment(wBatchSize, margin * 2);
+		fdlKey.top = new FormAttachment(wSpillAfter, margin);
 		fdlKey.right = new FormAttachment(100, 0);
 		wlKey.setLayoutData(fdlKey);
 
@@ -260,12 +383,29 @@ public class LoadHubDialog extends BaseLoadDialog implements StepDialogInterface
 				wSeqButton.setSelection(true);
 				wAutoinc.setSelection(false);
 				wTableMax.setSelection(false);
+				wSegment.setSelection(false);
 			}
 
 			public void focusLost(FocusEvent arg0) {
 			}
 		});
 
+		// Sequence values prefetched in blocks
+		wSeqPrefetch = new Button(gSurrGroup, SWT.CHECK);
+		props.setLook(wSeqPrefetch);
+		wSeqPrefetch.setText(BaseMessages.getString(PKG, "LoadDialog.SequencePrefetch.Label"));
+		wSeqPrefetch.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.SequencePrefetch.Tooltip"));
+		GridData gdSeqPrefetch = new GridData();
+		//full row, indented under sequence label
+		gdSeqPrefetch.horizontalSpan = 3;
+		gdSeqPrefetch.horizontalIndent = wSeqButton.computeSize(SWT.DEFAULT, SWT.DEFAULT).x;
+		wSeqPrefetch.setLayoutData(gdSeqPrefetch);
+		wSeqPrefetch.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				inputMeta.setChanged();
+			}
+		});
+
 		// Use an auto-increment field?
 		wAutoinc = new Button(gSurrGroup, SWT.RADIO);
 		props.setLook(wAutoinc);
@@ -279,6 +419,20 @@ public class LoadHubDialog extends BaseLoadDialog implements StepDialogInterface
 		GridData gdlAutoinc = new GridData();
 		wlAutoinc.setLayoutData(gdlAutoinc);
 
+		// In-process key generation (no DB round-trip)
+		wSegment = new Button(gSurrGroup, SWT.RADIO);
+		props.setLook(wSegment);
+		wSegment.setSelection(false);
+		GridData gdSegment = new GridData();
+		wSegment.setLayoutData(gdSegment);
+		wSegment.setToolTipText(BaseMessages.getString(PKG, "LoadDialog.Segment.Tooltip", Const.CR));
+		wlSegment = new Label(gSurrGroup, SWT.LEFT);
+		wlSegment.setText(BaseMessages.getString(PKG, "LoadDialog.Segment.Label"));
+		props.setLook(wlSegment);
+		GridData gdlSegment = new GridData();
+		gdlSegment.horizontalSpan = 2;
+		wlSegment.setLayoutData(gdlSegment);
+
 		setTableMax();
 		setSequence();
 		setAutoincUse();
@@ -320,6 +474,8 @@ public class LoadHubDialog extends BaseLoadDialog implements StepDialogInterface
 	
 		
 		wSeq.addSelectionListener(lsDef);
+		wKeyCacheSize.addSelectionListener(lsDef);
+		wSpillAfter.addSelectionListener(lsDef);
 		wTechKey.addSelectionListener(lsDef);
 
 		getData();
@@ -357,6 +513,7 @@ public class LoadHubDialog extends BaseLoadDialog implements StepDialogInterface
 	public void setSequence() {
 		boolean seq = (dbMeta == null) || dbMeta.supportsSequences();
 		wSeq.setEnabled(seq);
+		wSeqPrefetch.setEnabled(seq);
 		wlSeqButton.setEnabled(seq);
 		wSeqButton.setEnabled(seq);
 		if (!seq && wSeqButton.getSelection()) {
@@ -391,6 +548,11 @@ public class LoadHubDialog extends BaseLoadDialog implements StepDialogInterface
 		if (inputMeta.getTechKeyCol() != null) {
 			wTechKey.setText(inputMeta.getTechKeyCol());
 		}
+		wInitialLoad.setSelection(inputMeta.isInitialLoad());
+		wPartitionByKey.setSelection(inputMeta.isPartitionByKey());
+		wSortNewKeys.setSelection(inputMeta.isSortNewKeys());
+		wKeyCacheSize.setText("" + inputMeta.getKeyCacheSize());
+		wSpillAfter.setText("" + inputMeta.getSpillAfterMB());
 
 		String surrKeyCreation = inputMeta.getKeyGeneration();
 
@@ -401,6 +563,9 @@ public class LoadHubDialog extends BaseLoadDialog implements StepDialogInterface
 			if (inputMeta.getSequenceName() != null) {
 				wSeq.setText(inputMeta.getSequenceName());
 			}
+			wSeqPrefetch.setSelection(inputMeta.isPrefetchSequence());
+		} else if (BaseLoadMeta.CREATION_METHOD_SEGMENT.equals(surrKeyCreation)) {
+			wSegment.setSelection(true);
 		} else { // TableMax is also the default when no creation is yet defined
 			wTableMax.setSelection(true);
 			inputMeta.setKeyGeneration(BaseLoadMeta.CREATION_METHOD_TABLEMAX);
@@ -454,6 +619,11 @@ public class LoadHubDialog extends BaseLoadDialog implements StepDialogInterface
 	protected void getInfo(BaseLoadMeta in) {
 		super.getInfo(in);
 		in.setTechKeyCol(wTechKey.getText());
+		in.setInitialLoad(wInitialLoad.getSelection());
+		in.setPartitionByKey(wPartitionByKey.getSelection());
+		in.setSortNewKeys(wSortNewKeys.getSelection());
+		in.setKeyCacheSize(Const.toInt(wKeyCacheSize.getText(), 0));
+		in.setSpillAfterMB(Const.toInt(wSpillAfter.getText(), 0));
 
 		int nrkeys = wKey.nrNonEmpty();
 		in.allocateKeyArray(nrkeys);
@@ -470,6 +640,9 @@ public class LoadHubDialog extends BaseLoadDialog implements StepDialogInterface
 		} else if (wSeqButton.getSelection()) {
 			in.setKeyGeneration(BaseLoadMeta.CREATION_METHOD_SEQUENCE);
 			in.setSequenceName(wSeq.getText());
+			in.setPrefetchSequence(wSeqPrefetch.getSelection());
+		} else if (wSegment.getSelection()) {
+			in.setKeyGeneration(BaseLoadMeta.CREATION_METHOD_SEGMENT);
 		} else { // TableMax
 			in.setKeyGeneration(BaseLoadMeta.CREATION_METHOD_TABLEMAX);
 		}
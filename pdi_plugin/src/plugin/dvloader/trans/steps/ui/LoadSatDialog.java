@@ -137,7 +137,7 @@ public class LoadSatDialog extends BaseLoadDialog implements StepDialogInterface
 		FormData fdlIdempotent = new FormData();
 		fdlIdempotent.left = new FormAttachment(0, 0);
 		fdlIdempotent.right = new FormAttachment(middle, -margin);
-		fdlIdempotent.top = new FormAttachment(wBatchSize, margin);
+		fdlIdempotent.top = new FormAttachment(lastCommonLine, margin);
 		wlIsIdempotentSat.setLayoutData(fdlIdempotent);
 
 		wbIsIdempotentSat = new Button(shell, SWT.CHECK);
@@ -145,7 +145,7 @@ public class LoadSatDialog extends BaseLoadDialog implements StepDialogInterface
 		FormData fdbExtNatkeyTable = new FormData();
 		fdbExtNatkeyTable.left = new FormAttachment(middle, 0);
 		fdbExtNatkeyTable.right = new FormAttachment(middle + (100 - middle) / 3, -margin);
-		fdbExtNatkeyTable.top = new FormAttachment(wBatchSize, margin);
+		fdbExtNatkeyTable.top = new FormAttachment(lastCommonLine, margin);
 		wbIsIdempotentSat.setLayoutData(fdbExtNatkeyTable);
 		wbIsIdempotentSat.setToolTipText(BaseMessages.getString(PKG, "LoadSatDialog.IdempotentTransf.Tooltip"));
 				